@@ -0,0 +1,194 @@
+package alternativa.test.task1;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Admission control in front of match maker: registration is rejected with retry-after time
+ * while too many players wait in total or in player rank, while selector lags or match dispatch backlog is near its limit.
+ * Registration storm is pushed back to callers then instead of growing rank queues.
+ *
+ * Waiting counts are taken from rank queue depths of last selector cycle plus players admitted after it,
+ * so limits are soft: registrations racing with selector cycle may exceed them a little.
+ * Safe to call from any thread, nothing is allocated per registration.
+ */
+class AdmissionControl {
+
+    //tryRegister result of accepted registration
+    static final long ACCEPTED = 0;
+
+    enum Rejection {
+        GLOBAL_CAPACITY,
+        RANK_CAPACITY,
+        SELECTOR_LAG,
+        DISPATCH_BACKLOG,
+        //registration queue is full, selector takes registrations slower than they come
+        QUEUE_FULL
+    }
+
+    private final SteppableMatchMaker matchMaker;
+    private final MatchMakerMetrics metrics;
+    private final int minRank;
+    private final int maxRank;
+
+    private int maxWaiting = Integer.MAX_VALUE;
+    private int maxRankWaiting = Integer.MAX_VALUE;
+    private long maxSelectorLag = Long.MAX_VALUE;
+    private double maxDispatchBacklog = 1;
+    private long retryAfter = 100;
+
+    //players admitted since selector cycle seenCycle
+    private final AtomicLong seenCycle = new AtomicLong(-1);
+    private final AtomicIntegerArray admitted;
+    private final AtomicLong admittedTotal = new AtomicLong();
+
+    private final AtomicLongArray rejections = new AtomicLongArray(Rejection.values().length);
+    private final AtomicLong acceptedCount = new AtomicLong();
+
+
+    AdmissionControl(SteppableMatchMaker matchMaker, int minRank, int maxRank) {
+        this.matchMaker = matchMaker;
+        this.metrics = matchMaker.metrics();
+        this.minRank = minRank;
+        this.maxRank = maxRank;
+        this.admitted = new AtomicIntegerArray(maxRank - minRank + 1);
+    }
+
+
+    /**
+     * @param maxWaiting max count of waiting players of all ranks
+     */
+    AdmissionControl maxWaiting(int maxWaiting){
+        if (maxWaiting <= 0) throw new IllegalArgumentException();
+        this.maxWaiting = maxWaiting;
+        return this;
+    }
+
+
+    /**
+     * @param maxRankWaiting max count of waiting players of single rank
+     */
+    AdmissionControl maxRankWaiting(int maxRankWaiting){
+        if (maxRankWaiting <= 0) throw new IllegalArgumentException();
+        this.maxRankWaiting = maxRankWaiting;
+        return this;
+    }
+
+
+    /**
+     * @param maxSelectorLag max time in millis registrations may wait for selector cycle
+     */
+    AdmissionControl maxSelectorLag(long maxSelectorLag){
+        if (maxSelectorLag <= 0) throw new IllegalArgumentException();
+        this.maxSelectorLag = TimeUnit.MILLISECONDS.toNanos(maxSelectorLag);
+        return this;
+    }
+
+
+    /**
+     * @param maxDispatchBacklog part of dispatcher pending matches limit, from 0 to 1, registrations are rejected above it
+     */
+    AdmissionControl maxDispatchBacklog(double maxDispatchBacklog){
+        if (maxDispatchBacklog <= 0 || maxDispatchBacklog > 1) throw new IllegalArgumentException();
+        this.maxDispatchBacklog = maxDispatchBacklog;
+        return this;
+    }
+
+
+    /**
+     * @param retryAfter least millis rejected registration is retried after, selector lag is added to it
+     */
+    AdmissionControl retryAfter(long retryAfter){
+        if (retryAfter <= 0) throw new IllegalArgumentException();
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+
+    /**
+     * Registers player if match maker has room for him, never waits.
+     * @return {@link #ACCEPTED} or millis to retry registration after
+     */
+    long tryRegister(int uid, int rank){
+        if (rank < minRank || rank > maxRank) throw new UnsupportedOperationException();
+        int rankIndex = rank - minRank;
+        startCycleCount();
+
+        Rejection rejection = null;
+        long lag = metrics.selectorLag();
+        MatchDispatcher dispatcher = metrics.matchDispatcher();
+        if (lag > maxSelectorLag){
+            rejection = Rejection.SELECTOR_LAG;
+        }else if (dispatcher.pendingMatches() >= dispatcher.maxPendingMatches() * maxDispatchBacklog){
+            rejection = Rejection.DISPATCH_BACKLOG;
+        }else if (metrics.waitingPlayers() + admittedTotal.get() >= maxWaiting){
+            rejection = Rejection.GLOBAL_CAPACITY;
+        }else if (metrics.queueDepth(rankIndex) + admitted.get(rankIndex) >= maxRankWaiting){
+            rejection = Rejection.RANK_CAPACITY;
+        }else if (!matchMaker.offerPlayer(uid, rank)){
+            rejection = Rejection.QUEUE_FULL;
+        }
+        if (rejection != null){
+            rejections.incrementAndGet(rejection.ordinal());
+            return retryAfter + TimeUnit.NANOSECONDS.toMillis(lag);
+        }
+
+        admitted.incrementAndGet(rankIndex);
+        admittedTotal.incrementAndGet();
+        acceptedCount.incrementAndGet();
+        return ACCEPTED;
+    }
+
+
+    /**
+     * Registers player waiting for room in match maker.
+     * @return false if there was no room for timeout
+     */
+    boolean register(int uid, int rank, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true){
+            long retryAfter = tryRegister(uid, rank);
+            if (retryAfter == ACCEPTED) return true;
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            LockSupport.parkNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(retryAfter)));
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+
+    long acceptedCount(){
+        return acceptedCount.get();
+    }
+
+
+    long rejectedCount(Rejection rejection){
+        return rejections.get(rejection.ordinal());
+    }
+
+
+    /**
+     * Accepted registrations and rejected ones by reason.
+     */
+    String report(){
+        StringBuilder sb = new StringBuilder().append(acceptedCount()).append(" accepted, rejected:");
+        for (Rejection rejection : Rejection.values()){
+            sb.append(' ').append(rejection).append(' ').append(rejectedCount(rejection));
+        }
+        return sb.toString();
+    }
+
+
+    //queue depths of new selector cycle include players admitted before it
+    private void startCycleCount(){
+        long cycle = metrics.cycleCount();
+        long seen = seenCycle.get();
+        if (cycle == seen || !seenCycle.compareAndSet(seen, cycle)) return;
+        for (int i = 0; i < admitted.length(); i++) admitted.set(i, 0);
+        admittedTotal.set(0);
+    }
+
+}
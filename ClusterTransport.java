@@ -0,0 +1,20 @@
+package alternativa.test.task1;
+
+/**
+ * Delivery of registrations between nodes of {@link MatchCluster}, nodes are numbered from 0.
+ * Message is registration (uid, rank, enter time), unregistration has rank {@link RegistrationRing#UNREGISTER}.
+ * Messages sent to the same node by one thread must be received in order they were sent.
+ */
+interface ClusterTransport {
+
+    /**
+     * Sets receiver of messages sent to node, node is bound once before any message is sent to it.
+     */
+    void bind(int node, RegistrationRing.Consumer receiver);
+
+    /**
+     * May be called by several threads at once, may wait while receiving node is overloaded.
+     */
+    void send(int node, int uid, int rank, long enterTime);
+
+}
@@ -0,0 +1,187 @@
+package alternativa.test.task1;
+
+import java.util.Arrays;
+
+/**
+ * Players compatibility graph stored as bitset adjacency matrix, one row of long words per player.
+ * Instance is reused between selector cycles, so no allocations after capacity is reached.
+ * Matrix may be rebuilt every cycle with {@link #reset(int)} or kept up to date across cycles
+ * with {@link #grow(int)}, {@link #setCompat(int, int)} and {@link #clear(int)}.
+ * Not thread safe, but searches with own scratch space may run in parallel while matrix is not changed.
+ */
+class CompatibilityMatrix {
+
+    private int size;
+    private int words;
+    private long[] rows = new long[0];
+
+    //scratch space for clique search: candidates bitset for every search depth and found player indices
+    private long[] candidates = new long[0];
+    private int[] found = new int[0];
+
+
+    /**
+     * Clears matrix and prepares it for size players.
+     */
+    void reset(int size){
+        this.size = size;
+        this.words = (size + 63) >>> 6;
+        int required = size * words;
+        if (rows.length < required){
+            rows = new long[Math.max(required, rows.length * 2)];
+        }else{
+            Arrays.fill(rows, 0, required, 0L);
+        }
+    }
+
+
+    /**
+     * Enlarges matrix keeping compatibility of existing players, added players have no compatible ones.
+     */
+    void grow(int size){
+        if (size <= this.size) return;
+        int newWords = (size + 63) >>> 6;
+        int required = size * newWords;
+        if (newWords == words && rows.length >= required){
+            Arrays.fill(rows, this.size * words, required, 0L);
+        }else{
+            long[] newRows = new long[Math.max(required, rows.length * 2)];
+            for (int i = 0; i < this.size; i++) System.arraycopy(rows, i * words, newRows, i * newWords, words);
+            rows = newRows;
+            words = newWords;
+        }
+        this.size = size;
+    }
+
+
+    /**
+     * Makes player i compatible with nobody.
+     */
+    void clear(int i){
+        int offset = i * words;
+        for (int w = 0; w < words; w++){
+            long row = rows[offset + w];
+            while (row != 0){
+                int j = (w << 6) + Long.numberOfTrailingZeros(row);
+                row &= row - 1;
+                rows[j * words + (i >>> 6)] &= ~(1L << i);
+            }
+            rows[offset + w] = 0L;
+        }
+    }
+
+
+    int size(){
+        return size;
+    }
+
+
+    int words(){
+        return words;
+    }
+
+
+    void setCompat(int i, int j){
+        if (i == j) return;
+        rows[i * words + (j >>> 6)] |= 1L << j;
+        rows[j * words + (i >>> 6)] |= 1L << i;
+    }
+
+
+    boolean isCompat(int i, int j){
+        return (rows[i * words + (j >>> 6)] & (1L << j)) != 0;
+    }
+
+
+    /**
+     * Puts players compatible with i among players set in mask to target.
+     * @return count of them
+     */
+    int neighbours(int i, long[] mask, long[] target){
+        int count = 0;
+        int offset = i * words;
+        for (int w = 0; w < words; w++){
+            target[w] = rows[offset + w] & mask[w];
+            count += Long.bitCount(target[w]);
+        }
+        return count;
+    }
+
+
+    /**
+     * @return count of players compatible with i among players set in mask, i itself excluded
+     */
+    int degree(int i, long[] mask){
+        int count = 0;
+        int offset = i * words;
+        for (int w = 0; w < words; w++) count += Long.bitCount(rows[offset + w] & mask[w]);
+        return count;
+    }
+
+
+    /**
+     * Searches for count mutually compatible players among players set in mask.
+     * Lower indices are preferred, so players should be ordered by priority.
+     * @param result array to put found player indices to, at least count long
+     * @return true if found
+     */
+    boolean findClique(long[] mask, int count, int[] result){
+        if (count <= 0) return true;
+        if (candidates.length < count * words) candidates = new long[count * words];
+        if (found.length < count) found = new int[count];
+        return findClique(mask, count, result, candidates, found);
+    }
+
+
+    /**
+     * The same as {@link #findClique(long[], int, int[])} with caller scratch space.
+     * @param candidates scratch at least count * {@link #words()} long
+     * @param found scratch at least count long
+     */
+    boolean findClique(long[] mask, int count, int[] result, long[] candidates, int[] found){
+        if (count <= 0) return true;
+        int candidatesCount = 0;
+        for (int w = 0; w < words; w++){
+            candidates[w] = mask[w];
+            candidatesCount += Long.bitCount(mask[w]);
+        }
+        if (candidatesCount < count) return false;
+
+        if (!find(0, candidatesCount, count, candidates, found)) return false;
+        System.arraycopy(found, 0, result, 0, count);
+        return true;
+    }
+
+
+    private boolean find(int depth, int candidatesCount, int count, long[] candidates, int[] found){
+        int offset = depth * words;
+        for (int w = 0; w < words; w++){
+            while (candidates[offset + w] != 0){
+                //not enough candidates left to complete clique even if all of them are compatible
+                if (depth + candidatesCount < count) return false;
+
+                long bit = Long.lowestOneBit(candidates[offset + w]);
+                candidates[offset + w] ^= bit;
+                candidatesCount--;
+
+                int i = (w << 6) + Long.numberOfTrailingZeros(bit);
+                found[depth] = i;
+                if (depth + 1 == count) return true;
+
+                //next level candidates are remaining candidates compatible with i, all indices above i
+                int nextOffset = offset + words;
+                int rowOffset = i * words;
+                int nextCount = 0;
+                for (int v = 0; v < words; v++){
+                    long next = v < w ? 0L : candidates[offset + v] & rows[rowOffset + v];
+                    candidates[nextOffset + v] = next;
+                    nextCount += Long.bitCount(next);
+                }
+
+                if (depth + 1 + nextCount >= count && find(depth + 1, nextCount, count, candidates, found)) return true;
+            }
+        }
+        return false;
+    }
+
+}
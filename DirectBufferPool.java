@@ -0,0 +1,58 @@
+package alternativa.test.task1;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of direct byte buffers of the same size, so buffers are allocated only until pool is warmed up.
+ * Direct buffers are read to and written from by channels without copying to temporary native buffers.
+ * Not thread safe, is meant to be owned by single IO thread.
+ */
+class DirectBufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+    private long allocatedCount;
+
+
+    /**
+     * @param maxPooled max count of free buffers kept, buffers released above it are left to GC
+     */
+    DirectBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0 || maxPooled < 0) throw new IllegalArgumentException();
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+
+    /**
+     * @return cleared buffer
+     */
+    ByteBuffer acquire(){
+        ByteBuffer buffer = buffers.pollLast();
+        if (buffer == null){
+            allocatedCount++;
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        return buffer;
+    }
+
+
+    void release(ByteBuffer buffer){
+        if (buffers.size() >= maxPooled) return;
+        buffer.clear();
+        buffers.addLast(buffer);
+    }
+
+
+    int bufferSize(){
+        return bufferSize;
+    }
+
+
+    long allocatedCount(){
+        return allocatedCount;
+    }
+
+}
@@ -0,0 +1,482 @@
+package alternativa.test.task1;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compatibility graph of players allowed to be matched with other ranks, kept up to date across selector cycles.
+ * Graph changes only when player joins it, leaves it or gets next rank tolerance step,
+ * so every change costs O(players within tolerance), found by rank index,
+ * and only players changed since last search are searched matches for:
+ * any new match has to contain at least one of them, all other matches were already looked for.
+ *
+ * Players get slots in order they join, so players waiting longer have lower slots and are preferred.
+ * Freed slots are not reused until slots are compacted.
+ * Instead of incremental search all players may be packed to matches at once, see {@link #packMatches}.
+ * Players counts by rank and tolerance let search skip players no match is possible for, see {@link RankWindowIndex}.
+ * Search of large graph may be split between fork-join workers, see {@link #nextMatches}.
+ * Not thread safe, parallel search workers only read graph.
+ */
+class HardCaseGraph {
+
+    private final int matchPlayerCount;
+    private final CompatibilityMatrix matrix = new CompatibilityMatrix();
+    private final UidIndex slotsByUid = new UidIndex();
+    private final RankWindowIndex windows;
+    //slots by rank
+    private final RatingIndex byRank = new RatingIndex();
+
+    private int[] uids = new int[0];
+    private int[] ranks = new int[0];
+    private int[] tolerances = new int[0];
+    private long[] enterTimes = new long[0];
+    //bitsets of slots taken by players and of slots changed since last search
+    private long[] live = new long[0];
+    private long[] dirty = new long[0];
+    //slots below are ever taken since last compaction
+    private int slotCount;
+    private int liveCount;
+
+    //search scratch
+    private long[] mask = new long[0];
+    private int[] found;
+    private final MatchPacker packer;
+    private long[] weights = new long[0];
+
+    //parallel search: changed players are split between workers, which claim players of found matches
+    private static final int SEEDS_PER_TASK = 4;
+    private ForkJoinPool searchPool;
+    private int parallelThreshold = Integer.MAX_VALUE;
+    private int[] seeds = new int[0];
+    private AtomicLongArray claimed = new AtomicLongArray(0);
+    private final AtomicInteger matchCount = new AtomicInteger();
+    private volatile boolean claimConflicts;
+    private final ThreadLocal<SearchScratch> searchScratch = ThreadLocal.withInitial(SearchScratch::new);
+
+
+    HardCaseGraph(int matchPlayerCount, int minRank, int maxRank) {
+        this.matchPlayerCount = matchPlayerCount;
+        this.windows = new RankWindowIndex(matchPlayerCount, minRank, maxRank);
+        this.found = new int[matchPlayerCount];
+        this.packer = new MatchPacker(matchPlayerCount, 0);
+    }
+
+
+    /**
+     * Makes {@link #nextMatches} split search between pool workers while graph has at least minPlayers players.
+     */
+    void parallelSearch(ForkJoinPool pool, int minPlayers){
+        if (minPlayers <= 0) throw new IllegalArgumentException();
+        this.searchPool = pool;
+        this.parallelThreshold = minPlayers;
+    }
+
+
+    boolean contains(int uid){
+        return slotsByUid.contains(uid);
+    }
+
+
+    int size(){
+        return liveCount;
+    }
+
+
+    /**
+     * Adds player to graph or updates his tolerance.
+     * @param tolerance rank distance player accepts, only grows while player is waiting
+     * @return false if player is in graph with the same tolerance already
+     */
+    boolean put(int uid, int rank, long enterTime, int tolerance){
+        long existing = slotsByUid.get(uid);
+        int slot;
+        if (existing != UidIndex.NO_SLOT){
+            slot = (int) existing;
+            if (tolerances[slot] == tolerance && ranks[slot] == rank) return false;
+            matrix.clear(slot);
+            windows.remove(ranks[slot], tolerances[slot]);
+            byRank.remove(ranks[slot], slot);
+        }else{
+            if (slotCount == matrix.size()) makeRoom();
+            slot = slotCount++;
+            liveCount++;
+            live[slot >>> 6] |= 1L << slot;
+            slotsByUid.put(uid, slot);
+        }
+        uids[slot] = uid;
+        ranks[slot] = rank;
+        tolerances[slot] = tolerance;
+        enterTimes[slot] = enterTime;
+        dirty[slot >>> 6] |= 1L << slot;
+        windows.add(rank, tolerance);
+        byRank.add(rank, slot);
+        connect(slot);
+        return true;
+    }
+
+
+    void remove(int uid){
+        long slot = slotsByUid.remove(uid);
+        if (slot == UidIndex.NO_SLOT) return;
+        int s = (int) slot;
+        matrix.clear(s);
+        windows.remove(ranks[s], tolerances[s]);
+        byRank.remove(ranks[s], s);
+        live[s >>> 6] &= ~(1L << s);
+        dirty[s >>> 6] &= ~(1L << s);
+        liveCount--;
+    }
+
+
+    void clear(){
+        slotsByUid.clear();
+        Arrays.fill(live, 0L);
+        Arrays.fill(dirty, 0L);
+        matrix.reset(matrix.size());
+        windows.clear();
+        byRank.clear();
+        slotCount = 0;
+        liveCount = 0;
+    }
+
+
+    int uid(int slot){
+        return uids[slot];
+    }
+
+
+    int rank(int slot){
+        return ranks[slot];
+    }
+
+
+    /**
+     * Searches match containing some player changed since last search, longest waiting changed players first.
+     * Changed players no match is found for are not searched again until their next change.
+     * @param result array to put slots of match players to
+     * @return false if no more matches
+     */
+    boolean nextMatch(int[] result){
+        int words = matrix.words();
+        //no rank window holds match, nobody has to be searched until next change
+        if (!windows.matchPossible()){
+            Arrays.fill(dirty, 0L);
+            return false;
+        }
+        int dirtyCount = 0;
+        for (int w = 0; w < words; w++) dirtyCount += Long.bitCount(dirty[w]);
+        //after bulk changes (e.g. restart with backlog) one search over whole graph is cheaper than search per player
+        if (dirtyCount * 2 > liveCount) return nextMatchOfAll(result);
+
+        for (int w = 0; w < words; w++){
+            while (dirty[w] != 0){
+                int slot = (w << 6) + Long.numberOfTrailingZeros(dirty[w]);
+
+                //only neighbours having enough compatible ones among neighbours are suspects
+                if (candidate(slot) && matrix.neighbours(slot, live, mask) + 1 >= matchPlayerCount){
+                    for (int v = 0; v < words; v++){
+                        long suspects = mask[v];
+                        while (suspects != 0){
+                            int i = (v << 6) + Long.numberOfTrailingZeros(suspects);
+                            suspects &= suspects - 1;
+                            if (!candidate(i) || matrix.degree(i, mask) + 2 < matchPlayerCount) mask[v] &= ~(1L << i);
+                        }
+                    }
+
+                    if (matrix.findClique(mask, matchPlayerCount - 1, found)){
+                        result[0] = slot;
+                        System.arraycopy(found, 0, result, 1, matchPlayerCount - 1);
+                        return true;
+                    }
+                }
+                dirty[w] &= ~(1L << slot);
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Searches disjoint matches of players changed since last search at once, splitting changed players
+     * between fork-join workers if graph is large enough, otherwise the same as {@link #nextMatch}.
+     * Workers claim players of found matches, worker which claim conflicts searches again without players claimed.
+     * Longest waiting players are not preferred over others then.
+     * @param result array to put slots of matches to, match after match, at least {@link #size()} long
+     * @return count of matches, 0 if no more
+     */
+    int nextMatches(int[] result){
+        if (searchPool == null || liveCount < parallelThreshold) return nextMatch(result) ? 1 : 0;
+        if (!windows.matchPossible()){
+            Arrays.fill(dirty, 0L);
+            return 0;
+        }
+
+        int words = matrix.words();
+        int dirtyCount = 0;
+        for (int w = 0; w < words; w++) dirtyCount += Long.bitCount(dirty[w]);
+        //after bulk changes (e.g. restart with backlog) every player is searched
+        long[] changed = dirtyCount * 2 > liveCount ? live : dirty;
+        int seedCount = 0;
+        for (int w = 0; w < words; w++){
+            long bits = changed[w];
+            while (bits != 0){
+                int slot = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (candidate(slot)) seeds[seedCount++] = slot;
+            }
+        }
+        Arrays.fill(dirty, 0L);
+        if (seedCount == 0) return 0;
+
+        for (int w = 0; w < words; w++) claimed.set(w, 0L);
+        matchCount.set(0);
+        claimConflicts = false;
+        searchPool.invoke(new SeedSearch(result, 0, seedCount));
+
+        //player excluded while claimed by conflicting worker might be left without match, so seeds are searched again
+        if (claimConflicts){
+            for (int k = 0; k < seedCount; k++) dirty[seeds[k] >>> 6] |= 1L << seeds[k];
+        }
+        return matchCount.get();
+    }
+
+
+    /**
+     * Packs matches of all players at once, maximizing matched players count and then their total wait time.
+     * Packing is skipped if nobody changed since last search, as no new match is possible then.
+     * @param result array to put slots of matches to, match after match, at least {@link #size()} long
+     * @param deadline {@link System#nanoTime()} to stop improving packing at
+     * @return count of matches
+     */
+    int packMatches(int[] result, long now, long deadline){
+        boolean changed = false;
+        for (int w = 0; w < matrix.words() && !changed; w++) changed = dirty[w] != 0;
+        if (!changed) return 0;
+        if (!windows.matchPossible()){
+            Arrays.fill(dirty, 0L);
+            return 0;
+        }
+
+        //players no match is possible for are not packed
+        System.arraycopy(live, 0, mask, 0, matrix.words());
+        for (int slot = 0; slot < slotCount; slot++){
+            weights[slot] = now - enterTimes[slot];
+            if (!candidate(slot)) mask[slot >>> 6] &= ~(1L << slot);
+        }
+        int count = packer.pack(matrix, mask, weights, result, deadline);
+        //packing is maximal, no match is left among players not packed
+        Arrays.fill(dirty, 0L);
+        return count;
+    }
+
+
+    private boolean nextMatchOfAll(int[] result){
+        int words = matrix.words();
+        System.arraycopy(live, 0, mask, 0, words);
+        //only players having enough compatible ones are suspects
+        for (int w = 0; w < words; w++){
+            long suspects = mask[w];
+            while (suspects != 0){
+                int i = (w << 6) + Long.numberOfTrailingZeros(suspects);
+                suspects &= suspects - 1;
+                if (!candidate(i) || matrix.degree(i, mask) + 1 < matchPlayerCount) mask[w] &= ~(1L << i);
+            }
+        }
+
+        if (matrix.findClique(mask, matchPlayerCount, result)) return true;
+        //no matches at all, so nobody has to be searched again until next change
+        Arrays.fill(dirty, 0L);
+        return false;
+    }
+
+
+    /**
+     * Searches match of seed and players not claimed, claims its players.
+     */
+    private void searchSeed(int seed, SearchScratch scratch, int[] result){
+        int words = matrix.words();
+        long[] mask = scratch.mask;
+        while (!isClaimed(seed)){
+            if (matrix.neighbours(seed, live, mask) + 1 < matchPlayerCount) return;
+            for (int w = 0; w < words; w++) mask[w] &= ~claimed.get(w);
+            for (int w = 0; w < words; w++){
+                long suspects = mask[w];
+                while (suspects != 0){
+                    int i = (w << 6) + Long.numberOfTrailingZeros(suspects);
+                    suspects &= suspects - 1;
+                    if (!candidate(i) || matrix.degree(i, mask) + 2 < matchPlayerCount) mask[w] &= ~(1L << i);
+                }
+            }
+            if (!matrix.findClique(mask, matchPlayerCount - 1, scratch.found, scratch.candidates, scratch.clique)) return;
+
+            if (claim(seed, scratch.found)){
+                int offset = matchCount.getAndIncrement() * matchPlayerCount;
+                result[offset] = seed;
+                System.arraycopy(scratch.found, 0, result, offset + 1, matchPlayerCount - 1);
+                return;
+            }
+            claimConflicts = true;
+        }
+    }
+
+
+    //claims seed and found players all or none
+    private boolean claim(int seed, int[] found){
+        if (!setClaimed(seed)) return false;
+        for (int k = 0; k < found.length; k++){
+            if (setClaimed(found[k])) continue;
+            clearClaimed(seed);
+            for (int j = 0; j < k; j++) clearClaimed(found[j]);
+            return false;
+        }
+        return true;
+    }
+
+
+    private boolean isClaimed(int slot){
+        return (claimed.get(slot >>> 6) & (1L << slot)) != 0;
+    }
+
+
+    private boolean setClaimed(int slot){
+        long bit = 1L << slot;
+        while (true){
+            long word = claimed.get(slot >>> 6);
+            if ((word & bit) != 0) return false;
+            if (claimed.compareAndSet(slot >>> 6, word, word | bit)) return true;
+        }
+    }
+
+
+    private void clearClaimed(int slot){
+        long bit = 1L << slot;
+        while (true){
+            long word = claimed.get(slot >>> 6);
+            if (claimed.compareAndSet(slot >>> 6, word, word & ~bit)) return;
+        }
+    }
+
+
+    private boolean candidate(int slot){
+        return windows.candidate(ranks[slot], tolerances[slot]);
+    }
+
+
+    private boolean compat(int i, int j){
+        if (ranks[i] == ranks[j]) return true;
+        int distance = Math.abs(ranks[i] - ranks[j]);
+        return distance <= tolerances[i] && distance <= tolerances[j];
+    }
+
+
+    //only players within tolerance of slot player may be compatible with him
+    private void connect(int slot){
+        int hi = ranks[slot] + tolerances[slot];
+        for (long c = byRank.first(ranks[slot] - tolerances[slot]); c != RatingIndex.NO_CURSOR && byRank.rank(c) <= hi; c = byRank.next(c)){
+            int i = byRank.id(c);
+            if (i != slot && compat(slot, i)) matrix.setCompat(slot, i);
+        }
+    }
+
+
+    //compacts slots if half of them are free, enlarges graph otherwise
+    private void makeRoom(){
+        if (liveCount > 0 && liveCount * 2 <= slotCount){
+            compact();
+            return;
+        }
+        int capacity = Math.max(64, matrix.size() * 2);
+        matrix.grow(capacity);
+        uids = Arrays.copyOf(uids, capacity);
+        ranks = Arrays.copyOf(ranks, capacity);
+        tolerances = Arrays.copyOf(tolerances, capacity);
+        enterTimes = Arrays.copyOf(enterTimes, capacity);
+        weights = new long[capacity];
+        live = Arrays.copyOf(live, matrix.words());
+        dirty = Arrays.copyOf(dirty, matrix.words());
+        mask = new long[matrix.words()];
+        seeds = new int[capacity];
+        claimed = new AtomicLongArray(matrix.words());
+    }
+
+
+    //moves live players to lowest slots keeping their order and rebuilds matrix
+    private void compact(){
+        int count = 0;
+        for (int slot = 0; slot < slotCount; slot++){
+            if ((live[slot >>> 6] & (1L << slot)) == 0) continue;
+            boolean changed = (dirty[slot >>> 6] & (1L << slot)) != 0;
+            uids[count] = uids[slot];
+            ranks[count] = ranks[slot];
+            tolerances[count] = tolerances[slot];
+            enterTimes[count] = enterTimes[slot];
+            dirty[slot >>> 6] &= ~(1L << slot);
+            if (changed) dirty[count >>> 6] |= 1L << count;
+            slotsByUid.put(uids[count], count);
+            count++;
+        }
+        Arrays.fill(live, 0L);
+        byRank.clear();
+        for (int slot = 0; slot < count; slot++){
+            live[slot >>> 6] |= 1L << slot;
+            byRank.add(ranks[slot], slot);
+        }
+        slotCount = count;
+
+        matrix.reset(matrix.size());
+        for (int slot = 0; slot < count; slot++) connect(slot);
+    }
+
+
+    /**
+     * Searches matches of seeds [from, to), splitting them between tasks.
+     */
+    private class SeedSearch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] result;
+        private final int from;
+        private final int to;
+
+        SeedSearch(int[] result, int from, int to) {
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if (to - from > SEEDS_PER_TASK){
+                int middle = (from + to) >>> 1;
+                invokeAll(new SeedSearch(result, from, middle), new SeedSearch(result, middle, to));
+                return;
+            }
+            SearchScratch scratch = searchScratch.get();
+            scratch.ensureCapacity(matrix.words(), matchPlayerCount);
+            for (int k = from; k < to; k++) searchSeed(seeds[k], scratch, result);
+        }
+    }
+
+
+    //search space of worker thread
+    private static class SearchScratch {
+        long[] mask = new long[0];
+        long[] candidates = new long[0];
+        int[] found = new int[0];
+        int[] clique = new int[0];
+
+        void ensureCapacity(int words, int matchPlayerCount){
+            if (mask.length < words){
+                mask = new long[words];
+                candidates = new long[words * matchPlayerCount];
+            }
+            if (found.length != matchPlayerCount - 1){
+                found = new int[matchPlayerCount - 1];
+                clique = new int[matchPlayerCount - 1];
+            }
+        }
+    }
+
+}
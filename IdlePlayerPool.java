@@ -0,0 +1,55 @@
+package alternativa.test.task1;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Players not waiting in match maker and not playing, stored in primitive arrays.
+ * Random player is taken out by swapping him with the last one, so every operation is O(1).
+ */
+class IdlePlayerPool {
+
+    private int[] uids;
+    private int[] ranks;
+    private int size;
+
+
+    IdlePlayerPool(int initialCapacity) {
+        uids = new int[Math.max(1, initialCapacity)];
+        ranks = new int[uids.length];
+    }
+
+
+    synchronized void add(int uid, int rank){
+        if (size == uids.length){
+            uids = Arrays.copyOf(uids, size * 2);
+            ranks = Arrays.copyOf(ranks, size * 2);
+        }
+        uids[size] = uid;
+        ranks[size] = rank;
+        size++;
+    }
+
+
+    /**
+     * Takes random player out of pool.
+     * @param target array of two to put uid and rank to
+     * @return false if pool is empty
+     */
+    synchronized boolean takeRandom(Random random, int[] target){
+        if (size == 0) return false;
+        int i = random.nextInt(size);
+        target[0] = uids[i];
+        target[1] = ranks[i];
+        size--;
+        uids[i] = uids[size];
+        ranks[i] = ranks[size];
+        return true;
+    }
+
+
+    synchronized int size(){
+        return size;
+    }
+
+}
@@ -0,0 +1,232 @@
+package alternativa.test.task1;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop players load: players are registered at scheduled arrival times no matter
+ * how fast match maker takes them, late arrivals are registered at once to catch up.
+ * Registered players are taken from idle pool and come back to it when their match is over.
+ * With admission control players rejected by it go back to idle pool at once, as if they gave up.
+ */
+class LoadGenerator {
+
+    enum ArrivalMode {
+        //equal intervals between arrivals
+        CONSTANT,
+        //exponentially distributed intervals
+        POISSON,
+        //Poisson arrivals with rate going from nearly zero to double rate and back once a period
+        DIURNAL
+    }
+
+    private final IdlePlayerPool idlePlayers;
+    private ArrivalMode arrivalMode = ArrivalMode.POISSON;
+    private double arrivalsPerSecond = 100;
+    private long diurnalPeriod = TimeUnit.MINUTES.toMillis(10);
+    private long matchDuration = 0;
+    private int threads = 1;
+    private AdmissionControl admissionControl;
+
+    private final ScheduledThreadPoolExecutor matchEnds;
+    private final AtomicLong registeredCount = new AtomicLong();
+    //arrivals which found idle pool empty
+    private final AtomicLong missedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private volatile long startTime;
+    private volatile boolean run;
+    private Thread[] generatorThreads = new Thread[0];
+
+
+    /**
+     * @param idlePlayers players available for registration
+     */
+    LoadGenerator(IdlePlayerPool idlePlayers) {
+        this.idlePlayers = idlePlayers;
+        matchEnds = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "Match ends");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+
+    LoadGenerator arrivalMode(ArrivalMode arrivalMode){
+        this.arrivalMode = arrivalMode;
+        return this;
+    }
+
+
+    /**
+     * @param arrivalsPerSecond target registrations rate, mean one for diurnal mode
+     */
+    LoadGenerator arrivalsPerSecond(double arrivalsPerSecond){
+        if (arrivalsPerSecond <= 0) throw new IllegalArgumentException();
+        this.arrivalsPerSecond = arrivalsPerSecond;
+        return this;
+    }
+
+
+    /**
+     * @param diurnalPeriod period of rate change in diurnal mode in millis
+     */
+    LoadGenerator diurnalPeriod(long diurnalPeriod){
+        if (diurnalPeriod <= 0) throw new IllegalArgumentException();
+        this.diurnalPeriod = diurnalPeriod;
+        return this;
+    }
+
+
+    /**
+     * @param matchDuration millis players spend in match before coming back to idle pool
+     */
+    LoadGenerator matchDuration(long matchDuration){
+        if (matchDuration < 0) throw new IllegalArgumentException();
+        this.matchDuration = matchDuration;
+        return this;
+    }
+
+
+    /**
+     * @param threads count of registering threads, target rate is split between them
+     */
+    LoadGenerator threads(int threads){
+        if (threads <= 0) throw new IllegalArgumentException();
+        this.threads = threads;
+        return this;
+    }
+
+
+    /**
+     * @param admissionControl admission control to register players through, null to register them directly
+     */
+    LoadGenerator admissionControl(AdmissionControl admissionControl){
+        this.admissionControl = admissionControl;
+        return this;
+    }
+
+
+    void start(MatchMaker matchMaker){
+        stop();
+        run = true;
+        registeredCount.set(0);
+        missedCount.set(0);
+        rejectedCount.set(0);
+        maxLagNanos.set(0);
+        startTime = System.nanoTime();
+        generatorThreads = new Thread[threads];
+        for (int i = 0; i < threads; i++){
+            generatorThreads[i] = new Thread(() -> generate(matchMaker), "Load generator " + i);
+            generatorThreads[i].start();
+        }
+    }
+
+
+    void stop(){
+        run = false;
+        for (Thread t : generatorThreads) LockSupport.unpark(t);
+    }
+
+
+    /**
+     * Returns match players to idle pool after match duration, to be called by match created listener.
+     */
+    void onMatchCreated(Player... players){
+        if (matchDuration == 0){
+            for (Player p : players) idlePlayers.add(p.uid, p.rank);
+        }else{
+            matchEnds.schedule(() -> {
+                for (Player p : players) idlePlayers.add(p.uid, p.rank);
+            }, matchDuration, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    private void generate(MatchMaker matchMaker){
+        Random random = ThreadLocalRandom.current();
+        int[] player = new int[2];
+        double threadRate = arrivalsPerSecond / threads;
+        //arrival times are scheduled from start, not from previous registration, so slow registrations do not lower the rate
+        long arrivalTime = System.nanoTime();
+        while (run){
+            arrivalTime += nextArrivalGap(random, threadRate, arrivalTime - startTime);
+            long delay;
+            while (run && (delay = arrivalTime - System.nanoTime()) > 0) LockSupport.parkNanos(delay);
+            if (!run) break;
+
+            long lag = System.nanoTime() - arrivalTime;
+            long observed;
+            while (lag > (observed = maxLagNanos.get())){
+                if (maxLagNanos.compareAndSet(observed, lag)) break;
+            }
+
+            if (!idlePlayers.takeRandom(random, player)){
+                missedCount.incrementAndGet();
+            }else if (admissionControl == null){
+                matchMaker.registerPlayer(player[0], player[1]);
+                registeredCount.incrementAndGet();
+            }else if (admissionControl.tryRegister(player[0], player[1]) == AdmissionControl.ACCEPTED){
+                registeredCount.incrementAndGet();
+            }else{
+                idlePlayers.add(player[0], player[1]);
+                rejectedCount.incrementAndGet();
+            }
+        }
+    }
+
+
+    //nanos till next arrival of thread
+    private long nextArrivalGap(Random random, double threadRate, long elapsedNanos){
+        switch (arrivalMode){
+            case CONSTANT:
+                return (long) (1e9 / threadRate);
+            case DIURNAL:
+                double phase = 2 * Math.PI * elapsedNanos / TimeUnit.MILLISECONDS.toNanos(diurnalPeriod);
+                //rate never drops to zero, otherwise the next gap would be endless
+                threadRate *= Math.max(0.01, 1 - Math.cos(phase));
+                return (long) (-Math.log(1 - random.nextDouble()) * 1e9 / threadRate);
+            default:
+                return (long) (-Math.log(1 - random.nextDouble()) * 1e9 / threadRate);
+        }
+    }
+
+
+    long registeredCount(){
+        return registeredCount.get();
+    }
+
+
+    long missedCount(){
+        return missedCount.get();
+    }
+
+
+    long rejectedCount(){
+        return rejectedCount.get();
+    }
+
+
+    /**
+     * @return registrations per second since start
+     */
+    double achievedRate(){
+        return registeredCount.get() * 1e9 / Math.max(1, System.nanoTime() - startTime);
+    }
+
+
+    /**
+     * Target and achieved rates, idle pool exhaustion, admission rejections and generator lag behind schedule.
+     */
+    String report(){
+        return String.format(Locale.ROOT, "%s target %.1f/s, achieved %.1f/s, %d registered, %d missed (pool empty), %d rejected, %d idle, max lag %d ms",
+                arrivalMode, arrivalsPerSecond, achievedRate(), registeredCount(), missedCount(), rejectedCount(), idlePlayers.size(),
+                TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get()));
+    }
+
+}
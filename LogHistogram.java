@@ -0,0 +1,121 @@
+package alternativa.test.task1;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values with log-linear buckets (HDR histogram style):
+ * small values are counted exactly, every higher power of two range is split into
+ * {@link #SUB_BUCKETS} equal buckets, so relative error of reported values is within 1/SUB_BUCKETS.
+ * Recording does not allocate and may be done from any thread.
+ */
+class LogHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //values below are counted in own buckets
+    private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2;
+    //values from 2^MAX_VALUE_BITS are counted in last bucket
+    private static final int MAX_VALUE_BITS = 48;
+    private static final int BUCKETS = LINEAR_BUCKETS + (MAX_VALUE_BITS - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+
+    void record(long value){
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucket(value));
+        totalCount.incrementAndGet();
+        sum.addAndGet(value);
+        long observed;
+        while (value > (observed = max.get())){
+            if (max.compareAndSet(observed, value)) break;
+        }
+    }
+
+
+    long count(){
+        return totalCount.get();
+    }
+
+
+    /**
+     * @return copy of current state, recording may go on while snapshot is taken
+     */
+    Snapshot snapshot(){
+        long[] bucketCounts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++){
+            bucketCounts[i] = counts.get(i);
+            count += bucketCounts[i];
+        }
+        return new Snapshot(bucketCounts, count, sum.get(), max.get());
+    }
+
+
+    static int bucket(long value){
+        if (value < LINEAR_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_VALUE_BITS) return BUCKETS - 1;
+        //value shifted keeps its highest SUB_BUCKET_BITS + 1 bits, from SUB_BUCKETS to 2 * SUB_BUCKETS - 1
+        int shift = exponent - SUB_BUCKET_BITS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+
+    /**
+     * @return highest value counted in bucket
+     */
+    static long bucketHighValue(int bucket){
+        if (bucket < LINEAR_BUCKETS) return bucket;
+        int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long shifted = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((shifted + 1) << shift) - 1;
+    }
+
+
+    static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        long count(){
+            return count;
+        }
+
+        long max(){
+            return max;
+        }
+
+        double mean(){
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param quantile from 0 to 1
+         * @return value not less than quantile of recorded values, within histogram precision
+         */
+        long quantile(double quantile){
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++){
+                seen += counts[i];
+                if (seen >= rank) return Math.min(bucketHighValue(i), max);
+            }
+            return max;
+        }
+    }
+
+}
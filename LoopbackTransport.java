@@ -0,0 +1,44 @@
+package alternativa.test.task1;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Transport of cluster running in single process, message is passed to receiving node right in sending thread.
+ * Nodes take registrations through their own rings, so no queue is needed between them.
+ */
+class LoopbackTransport implements ClusterTransport {
+
+    private final RegistrationRing.Consumer[] receivers;
+    //metrics
+    private final AtomicLongArray sentCounts;
+
+
+    LoopbackTransport(int nodeCount) {
+        if (nodeCount <= 0) throw new IllegalArgumentException();
+        this.receivers = new RegistrationRing.Consumer[nodeCount];
+        this.sentCounts = new AtomicLongArray(nodeCount);
+    }
+
+
+    @Override
+    public void bind(int node, RegistrationRing.Consumer receiver){
+        if (receivers[node] != null) throw new IllegalStateException();
+        receivers[node] = receiver;
+    }
+
+
+    @Override
+    public void send(int node, int uid, int rank, long enterTime){
+        sentCounts.incrementAndGet(node);
+        receivers[node].onRegistration(uid, rank, enterTime);
+    }
+
+
+    /**
+     * @return count of messages sent to node
+     */
+    long sentCount(int node){
+        return sentCounts.get(node);
+    }
+
+}
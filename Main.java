@@ -1,10 +1,13 @@
 package alternativa.test.task1;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Flow;
 
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         final Random random = new Random();
 
@@ -13,112 +16,157 @@ public class Main {
         int MATCH_PLAYER_MIN_RANK = 1;
         int MATCH_PLAYER_MAX_RANK = 30;
         int RANK_INCREASE_TIMEOUT = 5000;
-        List<Player> availablePlayers = Collections.synchronizedList(new LinkedList<>());
         int PLAYERS_QTY = 1000000;
 
 
         //emulate real spreading - 1 rank is most, 30 rank is least
-        int rank_count = MATCH_PLAYER_MAX_RANK-MATCH_PLAYER_MIN_RANK+1;
-        double rank_sum = rank_count*(MATCH_PLAYER_MAX_RANK+MATCH_PLAYER_MIN_RANK)/2f;
-        double[] spread_borders= new double[rank_count];
-        double next_border_sum = 0;
-        for (int i=0; i<spread_borders.length;i++){
-            spread_borders[i] = next_border_sum + (MATCH_PLAYER_MAX_RANK-i+MATCH_PLAYER_MIN_RANK-1)/rank_sum;
-            next_border_sum = spread_borders[i];
-        }
+        RankDistribution rankDistribution = RankDistribution.skewed(MATCH_PLAYER_MIN_RANK, MATCH_PLAYER_MAX_RANK);
+        //otherwise simple spreading
+        //RankDistribution rankDistribution = RankDistribution.uniform(MATCH_PLAYER_MIN_RANK, MATCH_PLAYER_MAX_RANK);
 
 
+        IdlePlayerPool idlePlayers = new IdlePlayerPool(PLAYERS_QTY);
         for (int i = 0 ; i < PLAYERS_QTY; i++){
-
-            //emulate real spreading - 1 rank is most, 30 rank is least
-            double d = Math.random();
-            int rank = MATCH_PLAYER_MIN_RANK;
-            for (int j = MATCH_PLAYER_MIN_RANK; j <= MATCH_PLAYER_MAX_RANK; j++){
-                rank = j;
-                if (d < spread_borders[j-1]) {
-                    break;
-                }
-            }
-
-            //otherwise simple spreading
-            //int rank = Player.MIN_RANK + random.nextInt(Player.MAX_RANK);
-
-            availablePlayers.add(new Player(i, rank));
+            int rank = rankDistribution.nextRank(random);
+            idlePlayers.add(i, rank);
         }
 
+        //players registered over network by game servers, "server [port]" program arguments
+        boolean SERVER_MODE = args.length > 0 && args[0].equals("server");
+        int SERVER_PORT = SERVER_MODE && args.length > 1 ? Integer.parseInt(args[1]) : MatchServer.DEFAULT_PORT;
+        MatchServer matchServer = new MatchServer(SERVER_PORT);
+
+        //otherwise open-loop players load, "[arrival mode] [arrivals per second]" program arguments
+        LoadGenerator.ArrivalMode ARRIVAL_MODE = args.length > 0 && !SERVER_MODE ? LoadGenerator.ArrivalMode.valueOf(args[0]) : LoadGenerator.ArrivalMode.POISSON;
+        double ARRIVALS_PER_SECOND = args.length > 1 && !SERVER_MODE ? Double.parseDouble(args[1]) : 30;
+        long MATCH_DURATION = 0; //millis
+        LoadGenerator loadGenerator = new LoadGenerator(idlePlayers)
+                .arrivalMode(ARRIVAL_MODE)
+                .arrivalsPerSecond(ARRIVALS_PER_SECOND)
+                .matchDuration(MATCH_DURATION);
 
-        MatchMaker.OnMatchCreatedListener listener = players -> {
-            //            Log in nice format
-//            StringBuilder sb = new StringBuilder("Match created, ");
-//            sb.append("time:").append(System.currentTimeMillis());
-//            for (Player p : players){
-//                sb.append("\nuid:").append(p.uid).append(" rank:").append(p.rank);
-//            }
-//            sb.append("\n");
-//            System.out.println(sb);
 
+        //created matches are published to consumer requesting them in batches, slow consumer holds dispatcher back
+        int MATCH_BATCH = 64;
+        MatchPublisher matchPublisher = new MatchPublisher(MATCH_PLAYERS_COUNT);
+        matchPublisher.subscribe(new Flow.Subscriber<Player[]>() {
+            private Flow.Subscription subscription;
+            private int received;
 
-//            Log as required by task doc
-            StringBuilder sb = new StringBuilder("(");
-            sb.append(System.currentTimeMillis());
-            for (Player p : players){
-                sb.append(" ").append(p.uid);
+            @Override
+            public void onSubscribe(Flow.Subscription subscription){
+                this.subscription = subscription;
+                subscription.request(MATCH_BATCH);
             }
-            sb.append(")");
-            System.out.println(sb);
 
+            @Override
+            public void onNext(Player[] players){
+                onMatchCreated(players);
+                //next batch is requested when half of current one is consumed
+                if (++received == MATCH_BATCH / 2){
+                    received = 0;
+                    subscription.request(MATCH_BATCH / 2);
+                }
+            }
 
-            //return match ended players to availablePlayers pool (i.e. match is done immediately)
-            for (Player p : players){
-                availablePlayers.add(new Player(p.uid, p.rank));
+            @Override
+            public void onError(Throwable throwable){
+                throwable.printStackTrace();
             }
-        };
 
-//        MatchMaker matchMaker = new SimplifiedMatchMaker(listener);
-        MatchMaker matchMaker = new NotExactlySimplifiedMatchMaker(MATCH_PLAYERS_COUNT, MATCH_PLAYER_MIN_RANK, MATCH_PLAYER_MAX_RANK, RANK_INCREASE_TIMEOUT, listener);
-        matchMaker.startMatchMaking();
+            @Override
+            public void onComplete(){
+            }
 
+            private void onMatchCreated(Player[] players){
+                //matches are streamed to subscribed connections
+                if (SERVER_MODE){
+                    matchServer.onMatchCreated(players);
+                    return;
+                }
 
-        //emulate players connecting to game
-        class LoadEmulatorThread extends Thread{
-            private volatile boolean run = true;
-            @Override
-            public void run() {
-                setName("Load emulator");
-                while (run){
-                    try {
-                        int randomPosition = random.nextInt(availablePlayers.size());
-                        Player p = availablePlayers.remove(randomPosition);
-                        matchMaker.registerPlayer(p.uid, p.rank);
-                    }catch (IllegalArgumentException e){
-                        //all players already in matches
-                        System.out.println("No players available");
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException e1) {
-                            e1.printStackTrace();
-                        }
-                    }
-
-                    //emulate players connection interval
-                    long MIN_TIME = 100; //millis
-                    long MAX_TIME = 500; //millis
-                    long sleepTime = MIN_TIME + (long) (Math.random()*(MAX_TIME-MIN_TIME));
-                    try {
-                        Thread.sleep(sleepTime);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
+                //            Log in nice format
+//                StringBuilder sb = new StringBuilder("Match created, ");
+//                sb.append("time:").append(System.currentTimeMillis());
+//                for (Player p : players){
+//                    sb.append("\nuid:").append(p.uid).append(" rank:").append(p.rank);
+//                }
+//                sb.append("\n");
+//                System.out.println(sb);
+
+
+//                Log as required by task doc
+                StringBuilder sb = new StringBuilder("(");
+                sb.append(System.currentTimeMillis());
+                for (Player p : players){
+                    sb.append(" ").append(p.uid);
                 }
+                sb.append(")");
+                System.out.println(sb);
+
+
+                //return match ended players to idle pool after match duration
+                loadGenerator.onMatchCreated(players);
             }
+        });
+
+        //match creation stage, delay is emulated without parking thread per match
+        int MATCH_DISPATCH_THREADS = 2;
+        int MAX_PENDING_MATCHES = 10000;
+        long MATCH_CREATION_DELAY = 300;
+        MatchDispatcher matchDispatcher = new MatchDispatcher(MATCH_DISPATCH_THREADS, MAX_PENDING_MATCHES, MATCH_CREATION_DELAY, matchPublisher);
+
+//        SteppableMatchMaker matchMaker = new SimplifiedMatchMaker(matchDispatcher);
+//        SteppableMatchMaker matchMaker = new RankSweepMatchMaker(MATCH_PLAYERS_COUNT, MATCH_PLAYER_MIN_RANK, MATCH_PLAYER_MAX_RANK, RANK_INCREASE_TIMEOUT, matchDispatcher);
+        //waiting players survive restart if journal directory is given as -Djournal=<directory>
+        MatchMakerSettings settings = new MatchMakerSettings();
+        String JOURNAL_DIRECTORY = System.getProperty("journal");
+        if (JOURNAL_DIRECTORY != null) settings.journal(new MatchJournal(Paths.get(JOURNAL_DIRECTORY)));
+        SteppableMatchMaker matchMaker = new NotExactlySimplifiedMatchMaker(MATCH_PLAYERS_COUNT, MATCH_PLAYER_MIN_RANK, MATCH_PLAYER_MAX_RANK, RANK_INCREASE_TIMEOUT, settings, matchDispatcher);
+        matchMaker.startMatchMaking();
 
-            public void shutdown(){
-                run = false;
+        //registrations are rejected with retry-after time while match maker is overloaded
+        int MAX_WAITING_PLAYERS = 200000;
+        long MAX_SELECTOR_LAG = 200; //millis
+        double MAX_DISPATCH_BACKLOG = 0.9;
+        AdmissionControl admissionControl = new AdmissionControl(matchMaker, MATCH_PLAYER_MIN_RANK, MATCH_PLAYER_MAX_RANK)
+                .maxWaiting(MAX_WAITING_PLAYERS)
+                .maxSelectorLag(MAX_SELECTOR_LAG)
+                .maxDispatchBacklog(MAX_DISPATCH_BACKLOG);
+        loadGenerator.admissionControl(admissionControl);
+
+        //metrics are available through JMX and logged periodically to stderr, stdout carries matches only
+        matchMaker.metrics().registerMBean(matchMaker.getClass().getSimpleName());
+        long METRICS_LOG_INTERVAL = 10000; //millis
+        Thread metricsLogger = new Thread(() -> {
+            while (true){
+                try {
+                    Thread.sleep(METRICS_LOG_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                System.err.println("Metrics: " + matchMaker.metrics().snapshot());
+                System.err.println("Admission: " + admissionControl.report());
+                if (SERVER_MODE){
+                    System.err.println("Server: " + matchServer.connectionCount() + " connections, " + matchServer.registrationCount() + " registrations, "
+                            + matchServer.rejectedCount() + " rejected");
+                }else{
+                    System.err.println("Load: " + loadGenerator.report());
+                }
             }
+        }, "Metrics logger");
+        metricsLogger.setDaemon(true);
+        metricsLogger.start();
+
+
+        if (SERVER_MODE){
+            matchServer.start(matchMaker, admissionControl);
+            System.err.println("Listening at port " + matchServer.port());
+            return;
         }
 
-        //starting 10 simultaneous player registration threads
-        for (int i = 0; i < 10; i++) new LoadEmulatorThread().start();
+        //emulate players connecting to game
+        loadGenerator.start(matchMaker);
     }
 
 }
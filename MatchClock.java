@@ -0,0 +1,13 @@
+package alternativa.test.task1;
+
+/**
+ * Source of current time for match makers. Registration enter times, players compatibility
+ * and selector wakeups are all measured by it, so match maker may run on virtual time.
+ */
+interface MatchClock {
+
+    MatchClock SYSTEM = System::currentTimeMillis;
+
+    long currentTimeMillis();
+
+}
@@ -0,0 +1,236 @@
+package alternativa.test.task1;
+
+/**
+ * Match maker split into nodes by rank range: partition nodes serve parts of range of equal width,
+ * coordinating node serves whole range. All nodes are {@link NotExactlySimplifiedMatchMaker}s talking through transport,
+ * so they may live in different processes, transport of partitionCount + 1 nodes is given to constructor,
+ * partition nodes are numbered from 0 and coordinating node is the last one.
+ *
+ * Registration goes to partition of player rank. Players of different partitions are compatible only when
+ * tolerance of both reaches out of their partitions, partition hands players off to coordinating node
+ * when their tolerance covers whole partition and steps over its border, see {@link MatchMakerSettings#handOff}.
+ * So cross-partition matches are formed by coordinating node, after players were looked over with every player
+ * of own partition.
+ *
+ * Every player waits in single node at a time: cluster keeps home partition of every player with registrations
+ * not over yet, and his later registrations and unregistration go to it, whatever their rank is.
+ * Home partition applies duplicate policy, or passes them on to coordinating node while player waits there,
+ * and hands off registration of rank out of its range. Nodes tell cluster when registrations are over,
+ * record of player is dropped after his last one. So record lives in process of cluster object,
+ * which all registrations go through. Journal is not supported, nodes would share it.
+ */
+class MatchCluster implements SteppableMatchMaker {
+
+    //records of players are split between locks by uid
+    private static final int HOME_STRIPES = 64;
+    //record is home partition, count of registrations passed on to coordinating node and count of registrations not over,
+    //counts are bounded by registration ring capacity of nodes
+    private static final int HOME_SHIFT = 48;
+    private static final int HANDED_OFF_SHIFT = 24;
+    private static final long HANDED_OFF = 1L << HANDED_OFF_SHIFT;
+    private static final long PENDING = 1;
+    private static final long COUNT_MASK = HANDED_OFF - 1;
+
+    private final int minRank;
+    private final int maxRank;
+    private final MatchClock clock;
+    private final ClusterTransport transport;
+    private final NotExactlySimplifiedMatchMaker[] partitions;
+    private final NotExactlySimplifiedMatchMaker coordinator;
+    //partition node of every rank
+    private final int[] rankPartitions;
+    private final UidIndex[] homes = new UidIndex[HOME_STRIPES];
+
+
+    /**
+     * @param partitionCount count of rank range parts with own nodes
+     * @param settings tuning of every node
+     * @param transport transport of partitionCount + 1 nodes
+     * @param matchDispatcher match creation stage all nodes pass selected matches to
+     */
+    MatchCluster(int matchPlayerCount, int matchPlayerMinRank, int matchPlayerMaxRank, int rankIncreaseTimeout, int partitionCount,
+                 MatchMakerSettings settings, ClusterTransport transport, MatchDispatcher matchDispatcher) {
+        int rankCount = matchPlayerMaxRank - matchPlayerMinRank + 1;
+        if (partitionCount <= 0 || partitionCount > rankCount || settings.journal != null) throw new IllegalArgumentException();
+        this.minRank = matchPlayerMinRank;
+        this.maxRank = matchPlayerMaxRank;
+        this.clock = settings.clock;
+        this.transport = transport;
+
+        for (int i = 0; i < HOME_STRIPES; i++) homes[i] = new UidIndex();
+
+        int coordinatorNode = partitionCount;
+        MatchMakerSettings coordinatorSettings = settings.copy().releaseListener(uid -> updateHome(uid, -PENDING - HANDED_OFF));
+        coordinator = new NotExactlySimplifiedMatchMaker(matchPlayerCount, minRank, maxRank, rankIncreaseTimeout, coordinatorSettings, matchDispatcher);
+        transport.bind(coordinatorNode, receiver(coordinator));
+
+        partitions = new NotExactlySimplifiedMatchMaker[partitionCount];
+        rankPartitions = new int[rankCount];
+        MatchMaker.OnPlayerHandOffListener handOff = new MatchMaker.OnPlayerHandOffListener() {
+            @Override
+            public void onPlayerHandOff(int uid, int rank, long enterTime){
+                //counted before coordinating node may release it
+                if (rank != RegistrationRing.UNREGISTER) updateHome(uid, HANDED_OFF);
+                transport.send(coordinatorNode, uid, rank, enterTime);
+            }
+
+            @Override
+            public boolean isHandedOff(int uid){
+                return handedOffCount(uid) > 0;
+            }
+        };
+        MatchMakerSettings partitionSettings = settings.copy()
+                .handOff(minRank, maxRank, handOff)
+                .releaseListener(uid -> updateHome(uid, -PENDING));
+        for (int p = 0; p < partitionCount; p++){
+            int lo = p * rankCount / partitionCount;
+            int hi = (p + 1) * rankCount / partitionCount - 1;
+            partitions[p] = new NotExactlySimplifiedMatchMaker(matchPlayerCount, minRank + lo, minRank + hi, rankIncreaseTimeout, partitionSettings, matchDispatcher);
+            transport.bind(p, receiver(partitions[p]));
+            for (int r = lo; r <= hi; r++) rankPartitions[r] = p;
+        }
+    }
+
+
+    private static RegistrationRing.Consumer receiver(NotExactlySimplifiedMatchMaker node){
+        return (uid, rank, enterTime) -> {
+            if (rank == RegistrationRing.UNREGISTER){
+                node.unregisterPlayer(uid);
+            }else{
+                node.registerPlayer(uid, rank, enterTime);
+            }
+        };
+    }
+
+
+    public void startMatchMaking(){
+        coordinator.startMatchMaking();
+        for (NotExactlySimplifiedMatchMaker partition : partitions) partition.startMatchMaking();
+    }
+
+
+    public void stopMatchMaking(){
+        for (NotExactlySimplifiedMatchMaker partition : partitions) partition.stopMatchMaking();
+        coordinator.stopMatchMaking();
+    }
+
+
+    /**
+     * Runs selector cycle of every partition node and then of coordinating node, so players handed off
+     * by partitions are looked over in the same step.
+     */
+    public long selectMatches(){
+        long nextWakeTime = Long.MAX_VALUE;
+        for (NotExactlySimplifiedMatchMaker partition : partitions) nextWakeTime = Math.min(nextWakeTime, partition.selectMatches());
+        return Math.min(nextWakeTime, coordinator.selectMatches());
+    }
+
+
+    /**
+     * @return metrics of coordinating node, see {@link #metrics(int)}
+     */
+    public MatchMakerMetrics metrics(){
+        return coordinator.metrics();
+    }
+
+
+    /**
+     * @param node partition node number or {@link #partitionCount()} for coordinating node
+     */
+    MatchMakerMetrics metrics(int node){
+        return node == partitions.length ? coordinator.metrics() : partitions[node].metrics();
+    }
+
+
+    int partitionCount(){
+        return partitions.length;
+    }
+
+
+    public void registerPlayer(int uid, int rank){
+        registerPlayer(uid, rank, clock.currentTimeMillis());
+    }
+
+
+    public void registerPlayer(int uid, int rank, long enterTime){
+        if (rank < minRank || rank > maxRank){
+            throw new UnsupportedOperationException();
+        }
+        transport.send(homeOf(uid, rankPartitions[rank - minRank]), uid, rank, enterTime);
+    }
+
+
+    public void unregisterPlayer(int uid){
+        int home = homeOf(uid);
+        //no registration of player is pending
+        if (home < 0) return;
+        transport.send(home, uid, RegistrationRing.UNREGISTER, clock.currentTimeMillis());
+    }
+
+
+    /**
+     * Counts new registration of player.
+     * @param partition partition to become home of player who has no registrations pending
+     * @return home partition of player
+     */
+    private int homeOf(int uid, int partition){
+        UidIndex stripe = homes[uid & (HOME_STRIPES - 1)];
+        synchronized (stripe){
+            long home = stripe.get(uid);
+            if (home == UidIndex.NO_SLOT) home = (long) partition << HOME_SHIFT;
+            stripe.put(uid, home + PENDING);
+            return (int) (home >>> HOME_SHIFT);
+        }
+    }
+
+
+    /**
+     * @return home partition of player, -1 if he has no registrations pending
+     */
+    private int homeOf(int uid){
+        UidIndex stripe = homes[uid & (HOME_STRIPES - 1)];
+        synchronized (stripe){
+            long home = stripe.get(uid);
+            return home == UidIndex.NO_SLOT ? -1 : (int) (home >>> HOME_SHIFT);
+        }
+    }
+
+
+    private long handedOffCount(int uid){
+        UidIndex stripe = homes[uid & (HOME_STRIPES - 1)];
+        synchronized (stripe){
+            long home = stripe.get(uid);
+            return home == UidIndex.NO_SLOT ? 0 : (home >>> HANDED_OFF_SHIFT) & COUNT_MASK;
+        }
+    }
+
+
+    //called by node selectors, record is dropped when last registration of player is over
+    private void updateHome(int uid, long delta){
+        UidIndex stripe = homes[uid & (HOME_STRIPES - 1)];
+        synchronized (stripe){
+            long home = stripe.get(uid) + delta;
+            if ((home & COUNT_MASK) == 0){
+                stripe.remove(uid);
+            }else{
+                stripe.put(uid, home);
+            }
+        }
+    }
+
+
+    /**
+     * Transport can not refuse message, so registration is always taken, it may wait while node is overloaded.
+     */
+    public boolean offerPlayer(int uid, int rank){
+        registerPlayer(uid, rank);
+        return true;
+    }
+
+
+    public boolean offerUnregistration(int uid){
+        unregisterPlayer(uid);
+        return true;
+    }
+
+}
@@ -0,0 +1,237 @@
+package alternativa.test.task1;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Match creation stage between match selector and match created listener.
+ * Creation delay is emulated with queue of matches in dispatch order, which is order they are due in
+ * as delay is the same for all, so no thread is parked per match and small bounded pool is enough to serve all matches.
+ * Count of matches waiting for creation is limited, selector blocks on dispatch when limit reached.
+ * Without threads matches are created right in selector thread, which keeps simulation deterministic.
+ *
+ * Selected matches go back to pool after match created listener returns, see {@link #acquireMatch},
+ * listener gets new players it may keep, or arrays lent for the call if it is
+ * {@link MatchMaker.OnBorrowedMatchCreatedListener}. So dispatch with such listener allocates nothing per match.
+ */
+class MatchDispatcher {
+
+    static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+    static final int DEFAULT_MAX_PENDING_MATCHES = 10000;
+    static final long DEFAULT_CREATION_DELAY = 300;
+
+    private final MatchMaker.OnMatchCreatedListener matchListener;
+    private final MatchMaker.OnBorrowedMatchCreatedListener borrowedMatchListener;
+    private final long creationDelay;
+    private final int maxPendingMatches;
+    private final Semaphore pendingSlots;
+    //matches waiting for creation delay and shutdown flag, guarded by queue, null without threads
+    private final ArrayDeque<SelectedMatch> delayedMatches;
+    private boolean shutdown;
+    private final Thread[] threads;
+    private final MatchPool matchPool;
+
+    //metrics
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong stallCount = new AtomicLong();
+    private final AtomicInteger maxPendingObserved = new AtomicInteger();
+
+
+    /**
+     * @param matchCreatedListener listener to run after each match creation
+     */
+    MatchDispatcher(MatchMaker.OnMatchCreatedListener matchCreatedListener) {
+        this(DEFAULT_THREADS, DEFAULT_MAX_PENDING_MATCHES, DEFAULT_CREATION_DELAY, matchCreatedListener);
+    }
+
+
+    /**
+     * @param threads count of threads running match created listener,
+     *                0 to run listener in dispatching thread (creation delay must be 0 then)
+     * @param maxPendingMatches max count of dispatched but not yet created matches
+     * @param creationDelay emulated match creation delay in millis
+     * @param matchCreatedListener listener to run after each match creation
+     */
+    MatchDispatcher(int threads, int maxPendingMatches, long creationDelay, MatchMaker.OnMatchCreatedListener matchCreatedListener) {
+        if (threads < 0 || maxPendingMatches <= 0 || creationDelay < 0 || (threads == 0 && creationDelay > 0)){
+            throw new IllegalArgumentException();
+        }
+        this.matchListener = matchCreatedListener;
+        this.borrowedMatchListener = matchCreatedListener instanceof MatchMaker.OnBorrowedMatchCreatedListener
+                ? (MatchMaker.OnBorrowedMatchCreatedListener) matchCreatedListener : null;
+        this.creationDelay = creationDelay;
+        this.maxPendingMatches = maxPendingMatches;
+        this.pendingSlots = new Semaphore(maxPendingMatches);
+        //every pending match array may come back at once
+        this.matchPool = new MatchPool(maxPendingMatches);
+
+        if (threads == 0){
+            delayedMatches = null;
+            this.threads = new Thread[0];
+            return;
+        }
+        delayedMatches = new ArrayDeque<>();
+        this.threads = new Thread[threads];
+        for (int i = 0; i < threads; i++){
+            this.threads[i] = new Thread(this::createDelayedMatches, "Match dispatcher " + (i + 1));
+            this.threads[i].setDaemon(true);
+            this.threads[i].start();
+        }
+    }
+
+
+    /**
+     * @return match to fill and dispatch, dispatched match must not be kept by match maker
+     */
+    SelectedMatch acquireMatch(int matchPlayerCount){
+        return matchPool.acquire(matchPlayerCount);
+    }
+
+
+    /**
+     * Schedules match creation. Blocks caller while max count of pending matches reached.
+     */
+    void dispatch(SelectedMatch match){
+        if (!pendingSlots.tryAcquire()){
+            stallCount.incrementAndGet();
+            pendingSlots.acquireUninterruptibly();
+        }
+        dispatchedCount.incrementAndGet();
+
+        int pending = pendingMatches();
+        int observed;
+        while (pending > (observed = maxPendingObserved.get())){
+            if (maxPendingObserved.compareAndSet(observed, pending)) break;
+        }
+
+        if (delayedMatches == null){
+            createMatch(match);
+            return;
+        }
+        match.dueTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(creationDelay);
+        synchronized (delayedMatches){
+            delayedMatches.addLast(match);
+            //threads wait for head match only, new head is their only news
+            if (delayedMatches.size() == 1) delayedMatches.notify();
+        }
+    }
+
+
+    //loop of dispatcher thread, matches are taken in order they are due in
+    private void createDelayedMatches(){
+        while (true){
+            SelectedMatch match;
+            synchronized (delayedMatches){
+                while (true){
+                    match = delayedMatches.peekFirst();
+                    if (match == null){
+                        if (shutdown) return;
+                        waitUninterruptibly(0);
+                        continue;
+                    }
+                    long delay = match.dueTime - System.nanoTime();
+                    if (delay <= 0) break;
+                    waitUninterruptibly(delay);
+                }
+                delayedMatches.pollFirst();
+                //next match may be due while this thread is creating current one
+                if (!delayedMatches.isEmpty()) delayedMatches.notify();
+            }
+            try {
+                createMatch(match);
+            } catch (RuntimeException e) {
+                //failed listener must not stop thread serving other matches
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    //waits on queue monitor, which allocates nothing unlike lock conditions
+    private void waitUninterruptibly(long nanos){
+        try {
+            if (nanos > 0){
+                TimeUnit.NANOSECONDS.timedWait(delayedMatches, nanos);
+            }else{
+                delayedMatches.wait();
+            }
+        } catch (InterruptedException e) {
+            //dispatcher threads are stopped by shutdown only
+        }
+    }
+
+
+    private void createMatch(SelectedMatch match){
+        try {
+            if (borrowedMatchListener != null){
+                borrowedMatchListener.onMatchCreated(match.uids, match.ranks);
+            }else if (matchListener != null){
+                matchListener.onMatchCreated(match.toPlayers());
+            }
+        } finally {
+            matchPool.release(match);
+            createdCount.incrementAndGet();
+            pendingSlots.release();
+        }
+    }
+
+
+    /**
+     * Stops dispatcher, matches already dispatched are still created.
+     */
+    void shutdown(){
+        if (delayedMatches == null) return;
+        synchronized (delayedMatches){
+            shutdown = true;
+            delayedMatches.notifyAll();
+        }
+    }
+
+
+    /**
+     * @return ids of dispatcher threads, e.g. to account their allocations
+     */
+    long[] threadIds(){
+        long[] ids = new long[threads.length];
+        for (int i = 0; i < threads.length; i++) ids[i] = threads[i].getId();
+        return ids;
+    }
+
+
+    int pendingMatches(){
+        return maxPendingMatches - pendingSlots.availablePermits();
+    }
+
+
+    int maxPendingMatches(){
+        return maxPendingMatches;
+    }
+
+
+    int maxPendingMatchesObserved(){
+        return maxPendingObserved.get();
+    }
+
+
+    long dispatchedCount(){
+        return dispatchedCount.get();
+    }
+
+
+    long createdCount(){
+        return createdCount.get();
+    }
+
+
+    /**
+     * @return count of dispatch calls which had to wait for pending matches limit
+     */
+    long stallCount(){
+        return stallCount.get();
+    }
+
+}
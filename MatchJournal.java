@@ -0,0 +1,291 @@
+package alternativa.test.task1;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Persistence of waiting players, so restarted match maker keeps their enter times and so their rank tolerance.
+ * Registrations, removals and matched players are appended to memory-mapped write-ahead journal,
+ * waiting queues are periodically written to compact snapshot and journal starts over after it.
+ * Recovery reads snapshot and replays journal written after it.
+ *
+ * Journal and snapshot are written only by match selector thread, never by registering threads.
+ * Journal pages are flushed to disk by OS, so journal survives process crash, snapshot is forced to disk.
+ * Not thread safe.
+ */
+class MatchJournal {
+
+    /**
+     * Waiting players source for snapshot.
+     */
+    interface WaitingPlayers {
+        /**
+         * Passes every waiting player to consumer, players of the same rank in queue order.
+         */
+        void forEach(RegistrationRing.Consumer consumer);
+    }
+
+    static final long DEFAULT_SNAPSHOT_INTERVAL = 60000;
+    private static final int DEFAULT_CAPACITY = 1 << 20;
+
+    //journal header: generation of snapshot journal continues; record: type, uid, rank, reserved, time
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 24;
+    private static final int END = 0;
+    private static final int REGISTERED = 1;
+    private static final int REMOVED = 2;
+    private static final int MATCHED = 3;
+    //snapshot header: generation, count; record: uid, rank, enter time
+    private static final int SNAPSHOT_HEADER_SIZE = 12;
+    private static final int SNAPSHOT_RECORD_SIZE = 16;
+
+    private final Path journalFile;
+    private final Path snapshotFile;
+    private final long snapshotInterval;
+    private final FileChannel journalChannel;
+    private MappedByteBuffer journal;
+    private long generation;
+    private long lastSnapshotTime = Long.MIN_VALUE;
+    private final ByteBuffer snapshotBuffer = ByteBuffer.allocateDirect(SNAPSHOT_RECORD_SIZE * 4096);
+
+    //metrics
+    private long recordCount;
+    private long snapshotCount;
+
+
+    /**
+     * @param directory directory of journal and snapshot files, created if missing
+     */
+    MatchJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_CAPACITY, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+
+    /**
+     * @param capacity journal records mapped at once, journal is remapped larger if it fills up before snapshot
+     * @param snapshotInterval millis between snapshots, snapshot is taken earlier if journal is half full
+     */
+    MatchJournal(Path directory, int capacity, long snapshotInterval) throws IOException {
+        if (capacity <= 0 || snapshotInterval <= 0) throw new IllegalArgumentException();
+        Files.createDirectories(directory);
+        this.journalFile = directory.resolve("journal");
+        this.snapshotFile = directory.resolve("snapshot");
+        this.snapshotInterval = snapshotInterval;
+
+        journalChannel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(journalChannel.size(), HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        journal = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+
+    /**
+     * Passes players waiting at last snapshot or journal record to consumer in their registration order.
+     * Must be called once before anything is appended.
+     * @return count of recovered players
+     */
+    int recover(RegistrationRing.Consumer consumer) throws IOException {
+        //recovered players in registration order, players not at their position in index are removed or registered again
+        UidIndex positions = null;
+        int[] uids = new int[1024];
+        int[] ranks = new int[1024];
+        long[] enterTimes = new long[1024];
+        int count = 0;
+
+        long snapshotGeneration = 0;
+        if (Files.exists(snapshotFile)){
+            try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)){
+                MappedByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                snapshotGeneration = snapshot.getLong(0);
+                int snapshotCount = snapshot.getInt(8);
+                //index is sized once, as it is rehashed on every growth
+                positions = new UidIndex(snapshotCount * 2);
+                uids = new int[Math.max(1024, snapshotCount)];
+                ranks = new int[uids.length];
+                enterTimes = new long[uids.length];
+                for (int i = 0; i < snapshotCount; i++){
+                    int offset = SNAPSHOT_HEADER_SIZE + i * SNAPSHOT_RECORD_SIZE;
+                    uids[count] = snapshot.getInt(offset);
+                    ranks[count] = snapshot.getInt(offset + 4);
+                    enterTimes[count] = snapshot.getLong(offset + 8);
+                    positions.put(uids[count], count);
+                    count++;
+                }
+            }
+        }
+
+        if (positions == null) positions = new UidIndex();
+
+        //journal of older generation was written before snapshot, which contains all of it then
+        int position = HEADER_SIZE;
+        if (journal.getLong(0) == snapshotGeneration){
+            for (; position + RECORD_SIZE <= journal.capacity(); position += RECORD_SIZE){
+                int type = journal.getInt(position);
+                if (type == END) break;
+                int uid = journal.getInt(position + 4);
+                //earlier registration of player is dropped, he is recovered only at his last position
+                positions.remove(uid);
+                if (type != REGISTERED) continue;
+
+                if (count == uids.length){
+                    uids = Arrays.copyOf(uids, count * 2);
+                    ranks = Arrays.copyOf(ranks, count * 2);
+                    enterTimes = Arrays.copyOf(enterTimes, count * 2);
+                }
+                uids[count] = uid;
+                ranks[count] = journal.getInt(position + 8);
+                enterTimes[count] = journal.getLong(position + 16);
+                positions.put(uid, count);
+                count++;
+            }
+        }
+
+        int recovered = 0;
+        for (int i = 0; i < count; i++){
+            //removed or registered again later
+            if (positions.get(uids[i]) != i) continue;
+            consumer.onRegistration(uids[i], ranks[i], enterTimes[i]);
+            recovered++;
+        }
+
+        generation = snapshotGeneration;
+        journal.putLong(0, generation);
+        journal.position(position);
+        terminate();
+        return recovered;
+    }
+
+
+    void registered(int uid, int rank, long enterTime){
+        append(REGISTERED, uid, rank, enterTime);
+    }
+
+
+    void removed(int uid, long time){
+        append(REMOVED, uid, 0, time);
+    }
+
+
+    void matched(SelectedMatch match, long time){
+        for (int i = 0; i < match.size(); i++) append(MATCHED, match.uids[i], match.ranks[i], time);
+    }
+
+
+    /**
+     * @return true if snapshot interval passed or journal is half full
+     */
+    boolean snapshotDue(long now){
+        if (lastSnapshotTime == Long.MIN_VALUE) lastSnapshotTime = now;
+        return now - lastSnapshotTime >= snapshotInterval || journal.position() > journal.capacity() / 2;
+    }
+
+
+    /**
+     * Writes all waiting players to snapshot file and starts journal over.
+     */
+    void snapshot(WaitingPlayers players, long now) throws IOException {
+        long nextGeneration = generation + 1;
+        Path temporary = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            int[] count = {0};
+            IOException[] failure = {null};
+            channel.position(SNAPSHOT_HEADER_SIZE);
+            snapshotBuffer.clear();
+            players.forEach((uid, rank, enterTime) -> {
+                if (failure[0] != null) return;
+                snapshotBuffer.putInt(uid).putInt(rank).putLong(enterTime);
+                count[0]++;
+                if (snapshotBuffer.hasRemaining()) return;
+                try {
+                    writeSnapshotBuffer(channel);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) throw failure[0];
+            writeSnapshotBuffer(channel);
+
+            snapshotBuffer.putLong(nextGeneration).putInt(count[0]);
+            snapshotBuffer.flip();
+            channel.write(snapshotBuffer, 0);
+            snapshotBuffer.clear();
+            channel.force(true);
+        }
+        Files.move(temporary, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        //crash before journal starts over leaves journal of previous generation, which is ignored by recovery
+        generation = nextGeneration;
+        journal.putLong(0, generation);
+        journal.position(HEADER_SIZE);
+        terminate();
+        lastSnapshotTime = now;
+        snapshotCount++;
+    }
+
+
+    /**
+     * Forces journal pages to disk, mapping itself is released with journal object.
+     */
+    void close() throws IOException {
+        journal.force();
+        journalChannel.close();
+    }
+
+
+    long recordCount(){
+        return recordCount;
+    }
+
+
+    long snapshotCount(){
+        return snapshotCount;
+    }
+
+
+    private void writeSnapshotBuffer(FileChannel channel) throws IOException {
+        snapshotBuffer.flip();
+        while (snapshotBuffer.hasRemaining()) channel.write(snapshotBuffer);
+        snapshotBuffer.clear();
+    }
+
+
+    private void append(int type, int uid, int rank, long time){
+        if (journal.remaining() < RECORD_SIZE * 2) remap();
+        int position = journal.position();
+        journal.putInt(position + 4, uid);
+        journal.putInt(position + 8, rank);
+        journal.putInt(position + 12, 0);
+        journal.putLong(position + 16, time);
+        //type goes last, so record is seen by recovery only when complete
+        journal.putInt(position, type);
+        journal.position(position + RECORD_SIZE);
+        terminate();
+        recordCount++;
+    }
+
+
+    //marks journal end, as records of previous generation may follow
+    private void terminate(){
+        if (journal.remaining() >= RECORD_SIZE) journal.putInt(journal.position(), END);
+    }
+
+
+    //journal filled up before snapshot, e.g. with burst of registrations in one cycle
+    private void remap(){
+        int position = journal.position();
+        try {
+            journal = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) journal.capacity() * 2);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        journal.position(position);
+    }
+
+}
@@ -3,6 +3,7 @@ package alternativa.test.task1;
 
 public interface MatchMaker {
     void registerPlayer(int uid, int rank);
+    void unregisterPlayer(int uid);
     void startMatchMaking();
     void stopMatchMaking();
 
@@ -14,8 +15,63 @@ public interface MatchMaker {
         }
     }
 
+    /**
+     * What to do when player already waiting in queue is registered again.
+     */
+    enum DuplicatePolicy {
+        //keep existing registration and its wait time, ignore new one
+        KEEP_FIRST,
+        //drop existing registration, queue player again with new rank and enter time
+        REPLACE
+    }
+
+    /**
+     * Which players of rank queue are taken to same rank match when queue has more players than match needs.
+     */
+    enum SelectionPolicy {
+        //most recently registered first, players left wait for other ranks tolerance
+        NEWEST_FIRST,
+        //longest waiting first
+        OLDEST_FIRST,
+        //players within lead of max wait first, least time left of them first, then most recently registered
+        DEADLINE
+    }
+
     interface OnMatchCreatedListener {
         void onMatchCreated(Player... players);
     }
 
+    /**
+     * Match created listener taking match players as arrays lent for the call only, dispatcher reuses them
+     * after listener returns, so no objects are created per match.
+     * Dispatcher calls {@link #onMatchCreated(int[], int[])} instead of {@link #onMatchCreated(Player...)} for it.
+     */
+    interface OnBorrowedMatchCreatedListener extends OnMatchCreatedListener {
+        void onMatchCreated(int[] uids, int[] ranks);
+    }
+
+    /**
+     * Takes waiting player match maker gave up, or registration and unregistration of player handed off,
+     * see {@link MatchMakerSettings#handOff}.
+     */
+    interface OnPlayerHandOffListener {
+        void onPlayerHandOff(int uid, int rank, long enterTime);
+
+        /**
+         * @return true if player handed off before may still wait in listener,
+         *         his registrations and unregistration are handed off after him then
+         */
+        default boolean isHandedOff(int uid){
+            return false;
+        }
+    }
+
+    /**
+     * Learns that registration taken is over: player is matched, unregistered or replaced by his new registration,
+     * or registration is ignored as duplicate. Player handed off is released by match maker he was handed off to.
+     */
+    interface OnPlayerReleasedListener {
+        void onPlayerReleased(int uid);
+    }
+
 }
@@ -0,0 +1,402 @@
+package alternativa.test.task1;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Benchmarks of match maker implementations:
+ * registerPlayer throughput for different producer threads count,
+ * single selector cycle latency with steady backlog
+ * and hard cases look over time for different backlog sizes and rank distributions,
+ * single selector cycle latency for fine rating scale,
+ * bytes allocated per formed match in steady state on virtual time, checked against limit for garbage-free match makers,
+ * and matches per second of running selectors for different shard counts and cluster partition counts.
+ *
+ * Every benchmark runs warmup iterations first, results of measurement iterations are printed to console.
+ * Optional program argument filters benchmarks by name part, e.g. "cycle" or "NotExactly".
+ */
+public class MatchMakerBenchmark {
+
+    private static final int MATCH_PLAYERS_COUNT = 8;
+    private static final int MIN_RANK = 1;
+    private static final int MAX_RANK = 30;
+    private static final int RANK_INCREASE_TIMEOUT = 5000;
+    private static final long PACKING_BUDGET = 1000000;
+    private static final int PARALLEL_SEARCH_PLAYERS = 1000;
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASUREMENT_ITERATIONS = 10;
+
+    private static final int[] PRODUCER_THREADS = {1, 2, 4, 8, 16, 32};
+    private static final int REGISTRATIONS_PER_ITERATION = 200000;
+
+    private static final int CYCLES_PER_ITERATION = 2000;
+
+    private static final int[] BACKLOG_SIZES = {50, 210, 2000};
+    private static final int BACKLOGS_PER_ITERATION = 20;
+    //backlog players enter times are spread over this time, so they have different tolerance
+    private static final long BACKLOG_WAIT_SPREAD = RANK_INCREASE_TIMEOUT * 6;
+
+    //Elo-like rating scale, tolerance grows over it as fast as over ranks
+    private static final int MIN_RATING = 0;
+    private static final int MAX_RATING = 5000;
+    private static final int RATING_INCREASE_TIMEOUT = RANK_INCREASE_TIMEOUT * (MAX_RANK - MIN_RANK) / (MAX_RATING - MIN_RATING);
+    private static final int RATING_BACKLOG = 2000;
+
+    private static final int ALLOCATION_CYCLES_PER_ITERATION = 20000;
+    //virtual time between cycles, one player arrives per cycle, so rank queues rarely fill
+    //and most players are matched with other ranks after tolerance steps
+    private static final long ALLOCATION_CYCLE_TIME = 100;
+    //steady state register, select and dispatch of these subjects must not allocate more per match,
+    //program exits with status 1 otherwise
+    private static final double MAX_BYTES_PER_MATCH = 64;
+    private static final Set<String> GARBAGE_FREE_SUBJECTS = new HashSet<>(Arrays.asList(
+            "NotExactlySimplifiedMatchMaker", "NotExactlySimplifiedMatchMaker packing", "NotExactlySimplifiedMatchMaker parallel",
+            "RankSweepMatchMaker", "RankSweepMatchMaker shards=4"));
+    //dispatcher threads of default configuration, match creation delay is not waited for
+    private static final int ALLOCATION_DISPATCH_THREADS = 2;
+    //registered uids are recycled, so uid index and queues stop growing after warmup
+    private static final int ALLOCATION_UIDS = 100000;
+
+    private static final int[] SHARD_COUNTS = {1, 2, 4, 8};
+    private static final int[] PARTITION_COUNTS = {1, 2, 4, 8};
+    //fits registration ring of single selector, so whole load is registered before selectors start
+    private static final int SELECTOR_PLAYERS_PER_ITERATION = 60000;
+
+    //results are summed here so JIT could not throw benchmarked code away
+    static volatile long sink;
+
+    //subjects take settings, so allocation benchmark could run them on virtual time
+    private static final Map<String, BiFunction<MatchMakerSettings, MatchDispatcher, SteppableMatchMaker>> SUBJECTS = new LinkedHashMap<>();
+    static {
+        SUBJECTS.put("SimplifiedMatchMaker", SimplifiedMatchMaker::new);
+        SUBJECTS.put("NotExactlySimplifiedMatchMaker", (s, d) -> new NotExactlySimplifiedMatchMaker(MATCH_PLAYERS_COUNT, MIN_RANK, MAX_RANK, RANK_INCREASE_TIMEOUT, s, d));
+        SUBJECTS.put("NotExactlySimplifiedMatchMaker packing", (s, d) -> new NotExactlySimplifiedMatchMaker(MATCH_PLAYERS_COUNT, MIN_RANK, MAX_RANK, RANK_INCREASE_TIMEOUT,
+                s.packingBudget(PACKING_BUDGET), d));
+        SUBJECTS.put("NotExactlySimplifiedMatchMaker parallel", (s, d) -> new NotExactlySimplifiedMatchMaker(MATCH_PLAYERS_COUNT, MIN_RANK, MAX_RANK, RANK_INCREASE_TIMEOUT,
+                s.parallelSearch(ForkJoinPool.commonPool(), PARALLEL_SEARCH_PLAYERS), d));
+        SUBJECTS.put("RankSweepMatchMaker", (s, d) -> new RankSweepMatchMaker(MATCH_PLAYERS_COUNT, MIN_RANK, MAX_RANK, RANK_INCREASE_TIMEOUT, 1, s, d));
+        SUBJECTS.put("RankSweepMatchMaker shards=4", (s, d) -> new RankSweepMatchMaker(MATCH_PLAYERS_COUNT, MIN_RANK, MAX_RANK, RANK_INCREASE_TIMEOUT, 4, s, d));
+    }
+
+    private static final Map<String, RankDistribution> DISTRIBUTIONS = new LinkedHashMap<>();
+    static {
+        DISTRIBUTIONS.put("uniform", RankDistribution.uniform(MIN_RANK, MAX_RANK));
+        DISTRIBUTIONS.put("skewed", RankDistribution.skewed(MIN_RANK, MAX_RANK));
+    }
+
+
+    public static void main(String[] args) throws InterruptedException {
+        String filter = args.length > 0 ? args[0] : "";
+
+        for (Map.Entry<String, BiFunction<MatchMakerSettings, MatchDispatcher, SteppableMatchMaker>> subject : SUBJECTS.entrySet()){
+            for (int threads : PRODUCER_THREADS){
+                String name = "register " + subject.getKey() + " threads=" + threads;
+                if (!name.contains(filter)) continue;
+                benchmarkRegistration(name, subject.getValue(), threads);
+            }
+        }
+
+        for (Map.Entry<String, BiFunction<MatchMakerSettings, MatchDispatcher, SteppableMatchMaker>> subject : SUBJECTS.entrySet()){
+            String name = "cycle " + subject.getKey();
+            if (!name.contains(filter)) continue;
+            benchmarkCycle(name, subject.getValue());
+        }
+
+        for (Map.Entry<String, BiFunction<MatchMakerSettings, MatchDispatcher, SteppableMatchMaker>> subject : SUBJECTS.entrySet()){
+            for (Map.Entry<String, RankDistribution> distribution : DISTRIBUTIONS.entrySet()){
+                for (int backlog : BACKLOG_SIZES){
+                    String name = "hardcases " + subject.getKey() + " " + distribution.getKey() + " backlog=" + backlog;
+                    if (!name.contains(filter)) continue;
+                    benchmarkHardCases(name, subject.getValue(), distribution.getValue(), backlog);
+                }
+            }
+        }
+
+        String name = "rating cycle NotExactlySimplifiedMatchMaker backlog=" + RATING_BACKLOG;
+        if (name.contains(filter)) benchmarkRatingCycle(name);
+
+        List<String> allocationFailures = new ArrayList<>();
+        for (Map.Entry<String, BiFunction<MatchMakerSettings, MatchDispatcher, SteppableMatchMaker>> subject : SUBJECTS.entrySet()){
+            for (int threads : new int[]{0, ALLOCATION_DISPATCH_THREADS}){
+                name = "allocation " + subject.getKey() + (threads == 0 ? "" : " dispatch threads=" + threads);
+                if (!name.contains(filter)) continue;
+                double bytesPerMatch = benchmarkAllocation(name, subject.getValue(), threads);
+                if (GARBAGE_FREE_SUBJECTS.contains(subject.getKey()) && bytesPerMatch > MAX_BYTES_PER_MATCH) allocationFailures.add(name);
+            }
+        }
+
+        for (int shards : SHARD_COUNTS){
+            name = "selectors RankSweepMatchMaker shards=" + shards;
+            if (!name.contains(filter)) continue;
+            benchmarkSelectors(name, d -> new RankSweepMatchMaker(MATCH_PLAYERS_COUNT, MIN_RANK, MAX_RANK, RANK_INCREASE_TIMEOUT, shards, d));
+        }
+
+        for (int partitions : PARTITION_COUNTS){
+            name = "selectors MatchCluster partitions=" + partitions;
+            if (!name.contains(filter)) continue;
+            benchmarkSelectors(name, d -> new MatchCluster(MATCH_PLAYERS_COUNT, MIN_RANK, MAX_RANK, RANK_INCREASE_TIMEOUT, partitions,
+                    new MatchMakerSettings(), new LoopbackTransport(partitions + 1), d));
+        }
+
+        if (!allocationFailures.isEmpty()){
+            System.err.println("Allocated more than " + MAX_BYTES_PER_MATCH + " bytes/match: " + allocationFailures);
+            System.exit(1);
+        }
+    }
+
+
+    //matches are passed on immediately and dropped, dispatcher is shared by all benchmarks
+    //as stopped selector threads may still finish their last look over
+    private static final MatchDispatcher DISPATCHER = new MatchDispatcher(1, Integer.MAX_VALUE, 0, null);
+
+
+    /**
+     * registerPlayer calls per second with running selector, players are never registered twice.
+     */
+    private static void benchmarkRegistration(String name, BiFunction<MatchMakerSettings, MatchDispatcher, SteppableMatchMaker> factory, int threads) throws InterruptedException {
+        double[] results = new double[MEASUREMENT_ITERATIONS];
+        int[] nextUid = {0};
+        for (int iteration = -WARMUP_ITERATIONS; iteration < MEASUREMENT_ITERATIONS; iteration++){
+            MatchMaker matchMaker = factory.apply(new MatchMakerSettings(), DISPATCHER);
+            matchMaker.startMatchMaking();
+
+            int perThread = REGISTRATIONS_PER_ITERATION / threads;
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] producers = new Thread[threads];
+            for (int t = 0; t < threads; t++){
+                int firstUid = nextUid[0];
+                nextUid[0] += perThread;
+                Random random = new Random(t);
+                RankDistribution distribution = DISTRIBUTIONS.get("skewed");
+                producers[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) matchMaker.registerPlayer(firstUid + i, distribution.nextRank(random));
+                });
+                producers[t].start();
+            }
+
+            long startTime = System.nanoTime();
+            start.countDown();
+            for (Thread producer : producers) producer.join();
+            long time = System.nanoTime() - startTime;
+
+            matchMaker.stopMatchMaking();
+            if (iteration >= 0) results[iteration] = perThread * threads * 1e9 / time;
+        }
+        printThroughput(name, results);
+    }
+
+
+    /**
+     * Single selector cycle time, every cycle takes one new player to backlog of players waiting different time.
+     */
+    private static void benchmarkCycle(String name, BiFunction<MatchMakerSettings, MatchDispatcher, SteppableMatchMaker> factory){
+        long[] results = new long[MEASUREMENT_ITERATIONS * CYCLES_PER_ITERATION];
+        RankDistribution distribution = DISTRIBUTIONS.get("skewed");
+        for (int iteration = -WARMUP_ITERATIONS; iteration < MEASUREMENT_ITERATIONS; iteration++){
+            SteppableMatchMaker matchMaker = factory.apply(new MatchMakerSettings(), DISPATCHER);
+            Random random = new Random(iteration);
+            long now = System.currentTimeMillis();
+
+            //steady state backlog: almost full rank queues which players can not be matched together yet
+            int uid = 0;
+            for (int rank = MIN_RANK; rank <= MAX_RANK; rank++){
+                for (int i = 0; i < MATCH_PLAYERS_COUNT - 1; i++) matchMaker.registerPlayer(uid++, rank, now - random.nextInt(RANK_INCREASE_TIMEOUT));
+            }
+            matchMaker.selectMatches();
+
+            for (int cycle = 0; cycle < CYCLES_PER_ITERATION; cycle++){
+                matchMaker.registerPlayer(uid++, distribution.nextRank(random));
+                long startTime = System.nanoTime();
+                sink += matchMaker.selectMatches();
+                long time = System.nanoTime() - startTime;
+                if (iteration >= 0) results[iteration * CYCLES_PER_ITERATION + cycle] = time;
+            }
+        }
+        printLatency(name, results);
+    }
+
+
+    /**
+     * Time of selector cycle which gets whole backlog at once, players wait long enough to be matched with other ranks.
+     */
+    private static void benchmarkHardCases(String name, BiFunction<MatchMakerSettings, MatchDispatcher, SteppableMatchMaker> factory, RankDistribution distribution, int backlog){
+        long[] results = new long[MEASUREMENT_ITERATIONS * BACKLOGS_PER_ITERATION];
+        for (int iteration = -WARMUP_ITERATIONS; iteration < MEASUREMENT_ITERATIONS; iteration++){
+            for (int b = 0; b < BACKLOGS_PER_ITERATION; b++){
+                SteppableMatchMaker matchMaker = factory.apply(new MatchMakerSettings(), DISPATCHER);
+                Random random = new Random(iteration * BACKLOGS_PER_ITERATION + b);
+                long now = System.currentTimeMillis();
+                for (int uid = 0; uid < backlog; uid++){
+                    matchMaker.registerPlayer(uid, distribution.nextRank(random), now - RANK_INCREASE_TIMEOUT - random.nextInt((int) BACKLOG_WAIT_SPREAD));
+                }
+
+                long startTime = System.nanoTime();
+                sink += matchMaker.selectMatches();
+                long time = System.nanoTime() - startTime;
+                if (iteration >= 0) results[iteration * BACKLOGS_PER_ITERATION + b] = time;
+            }
+        }
+        printLatency(name, results);
+    }
+
+
+    /**
+     * Single selector cycle time on rating scale, every cycle takes one new player to backlog of players waiting different time.
+     */
+    private static void benchmarkRatingCycle(String name){
+        long[] results = new long[MEASUREMENT_ITERATIONS * CYCLES_PER_ITERATION];
+        for (int iteration = -WARMUP_ITERATIONS; iteration < MEASUREMENT_ITERATIONS; iteration++){
+            SteppableMatchMaker matchMaker = new NotExactlySimplifiedMatchMaker(MATCH_PLAYERS_COUNT, MIN_RATING, MAX_RATING, RATING_INCREASE_TIMEOUT, DISPATCHER);
+            Random random = new Random(iteration);
+            long now = System.currentTimeMillis();
+
+            int uid = 0;
+            for (int i = 0; i < RATING_BACKLOG; i++){
+                matchMaker.registerPlayer(uid++, MIN_RATING + random.nextInt(MAX_RATING - MIN_RATING + 1), now - random.nextInt(RANK_INCREASE_TIMEOUT));
+            }
+            matchMaker.selectMatches();
+
+            for (int cycle = 0; cycle < CYCLES_PER_ITERATION; cycle++){
+                matchMaker.registerPlayer(uid++, MIN_RATING + random.nextInt(MAX_RATING - MIN_RATING + 1));
+                long startTime = System.nanoTime();
+                sink += matchMaker.selectMatches();
+                long time = System.nanoTime() - startTime;
+                if (iteration >= 0) results[iteration * CYCLES_PER_ITERATION + cycle] = time;
+            }
+        }
+        printLatency(name, results);
+    }
+
+
+    /**
+     * Bytes allocated per formed match by registrations, selector cycles and match dispatch in steady state.
+     * Time is virtual and load is seeded, so every run forms the same matches, most of them hard cases.
+     * Allocations of benchmark thread, which runs selector cycles, and of dispatcher threads are counted.
+     * Listener borrows match players like {@link MatchPublisher} does.
+     * Match maker is warmed up by warmup iterations, so steady state is expected to allocate nearly nothing.
+     * @param dispatchThreads dispatcher threads, 0 to create matches in selector thread
+     * @return mean bytes per match
+     */
+    private static double benchmarkAllocation(String name, BiFunction<MatchMakerSettings, MatchDispatcher, SteppableMatchMaker> factory, int dispatchThreads){
+        MatchDispatcher dispatcher = new MatchDispatcher(dispatchThreads, MatchDispatcher.DEFAULT_MAX_PENDING_MATCHES, 0, new MatchMaker.OnBorrowedMatchCreatedListener() {
+            @Override
+            public void onMatchCreated(int[] uids, int[] ranks){
+                sink += uids[0];
+            }
+
+            @Override
+            public void onMatchCreated(Player... players){
+                sink += players[0].uid;
+            }
+        });
+        VirtualClock clock = new VirtualClock(0);
+        SteppableMatchMaker matchMaker = factory.apply(new MatchMakerSettings().clock(clock), dispatcher);
+        RankDistribution distribution = DISTRIBUTIONS.get("skewed");
+        Random random = new Random(0);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] threadIds = Arrays.copyOf(dispatcher.threadIds(), dispatchThreads + 1);
+        threadIds[dispatchThreads] = Thread.currentThread().getId();
+
+        double[] results = new double[MEASUREMENT_ITERATIONS];
+        long mixed = 0;
+        long matches = 0;
+        int uid = 0;
+        for (int iteration = -WARMUP_ITERATIONS; iteration < MEASUREMENT_ITERATIONS; iteration++){
+            long created = dispatcher.createdCount();
+            long mixedCreated = matchMaker.metrics().getMixedRankMatches();
+            long allocated = allocatedBytes(threads, threadIds);
+            for (int cycle = 0; cycle < ALLOCATION_CYCLES_PER_ITERATION; cycle++){
+                clock.advanceTo(clock.currentTimeMillis() + ALLOCATION_CYCLE_TIME);
+                matchMaker.registerPlayer(uid, distribution.nextRank(random));
+                uid = (uid + 1) % ALLOCATION_UIDS;
+                sink += matchMaker.selectMatches();
+            }
+            while (dispatcher.pendingMatches() > 0) Thread.yield();
+            allocated = allocatedBytes(threads, threadIds) - allocated;
+            if (iteration < 0) continue;
+            results[iteration] = (double) allocated / Math.max(1, dispatcher.createdCount() - created);
+            matches += dispatcher.createdCount() - created;
+            mixed += matchMaker.metrics().getMixedRankMatches() - mixedCreated;
+        }
+        double mean = 0;
+        for (double r : results) mean += r;
+        System.out.println(String.format(Locale.ROOT, "%-70s %14.1f bytes/match  %.0f%% mixed rank",
+                name, mean / results.length, 100.0 * mixed / Math.max(1, matches)));
+        dispatcher.shutdown();
+        return mean / results.length;
+    }
+
+
+    //single thread lookups allocate no result array
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads, long[] threadIds){
+        long sum = 0;
+        for (long id : threadIds) sum += threads.getThreadAllocatedBytes(id);
+        return sum;
+    }
+
+
+    /**
+     * Matches per second of match maker running own selector threads, e.g. shards or cluster nodes.
+     * Registrations are taken before selectors start, players are new, so most of them are matched with same rank players.
+     * Speedup over single selector is bounded by available processors.
+     */
+    private static void benchmarkSelectors(String name, Function<MatchDispatcher, MatchMaker> factory) throws InterruptedException {
+        double[] results = new double[MEASUREMENT_ITERATIONS];
+        RankDistribution distribution = DISTRIBUTIONS.get("uniform");
+        for (int iteration = -WARMUP_ITERATIONS; iteration < MEASUREMENT_ITERATIONS; iteration++){
+            MatchDispatcher dispatcher = new MatchDispatcher(0, Integer.MAX_VALUE, 0, null);
+            MatchMaker matchMaker = factory.apply(dispatcher);
+            Random random = new Random(iteration);
+            int[] rankCounts = new int[MAX_RANK - MIN_RANK + 1];
+            for (int uid = 0; uid < SELECTOR_PLAYERS_PER_ITERATION; uid++){
+                int rank = distribution.nextRank(random);
+                rankCounts[rank - MIN_RANK]++;
+                matchMaker.registerPlayer(uid, rank);
+            }
+            //players left in rank queues may be matched later with other ranks only
+            long expected = 0;
+            for (int count : rankCounts) expected += count / MATCH_PLAYERS_COUNT;
+
+            long startTime = System.nanoTime();
+            matchMaker.startMatchMaking();
+            while (dispatcher.createdCount() < expected) Thread.sleep(0, 100000);
+            long time = System.nanoTime() - startTime;
+
+            matchMaker.stopMatchMaking();
+            if (iteration >= 0) results[iteration] = dispatcher.createdCount() * 1e9 / time;
+        }
+        printThroughput(name, results);
+    }
+
+
+    private static void printThroughput(String name, double[] results){
+        double mean = 0;
+        for (double r : results) mean += r;
+        mean /= results.length;
+        double variance = 0;
+        for (double r : results) variance += (r - mean) * (r - mean);
+        double deviation = Math.sqrt(variance / results.length);
+        System.out.println(String.format(Locale.ROOT, "%-70s %14.0f ops/s  +- %.0f", name, mean, deviation));
+    }
+
+
+    private static void printLatency(String name, long[] results){
+        Arrays.sort(results);
+        double mean = 0;
+        for (long r : results) mean += r;
+        mean /= results.length;
+        System.out.println(String.format(Locale.ROOT, "%-70s mean %10.1f us  p50 %10.1f us  p99 %10.1f us",
+                name, mean / 1000, results[results.length / 2] / 1000.0, results[results.length * 99 / 100] / 1000.0));
+    }
+
+}
@@ -0,0 +1,282 @@
+package alternativa.test.task1;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Match maker instrumentation: players wait times per rank, match counts, rank queue depths,
+ * selector cycle and hard cases look over durations, match dispatch backlog.
+ * Wait times of wide rank scales are kept per bucket of adjacent ranks, so rating scale does not need histogram per rating.
+ * Recording is lock-free and does not allocate, so metrics stay on at full load.
+ */
+class MatchMakerMetrics implements MatchMakerMetricsMXBean {
+
+    static final int MAX_RANK_WAIT_BUCKETS = 32;
+
+    private final int minRank;
+    private final int rankCount;
+    private final MatchDispatcher matchDispatcher;
+
+    //wait times in millis
+    private final LogHistogram waits = new LogHistogram();
+    //rank buckets of equal width, one rank per bucket for narrow scales
+    private final LogHistogram[] rankWaits;
+    //selector times in nanos
+    private final LogHistogram cycleTimes = new LogHistogram();
+    private final LogHistogram hardCaseTimes = new LogHistogram();
+    private final AtomicLong sameRankMatches = new AtomicLong();
+    private final AtomicLong mixedRankMatches = new AtomicLong();
+    //rank queue sizes at the end of last selector cycle
+    private final AtomicIntegerArray queueDepths;
+    //sum of queue depths, so it is not summed over wide rank scale
+    private final AtomicInteger waitingPlayers = new AtomicInteger();
+    //selector progress and rings registrations wait for selector in, for admission control
+    private final AtomicLong cycleCount = new AtomicLong();
+    private volatile RegistrationRing[] registrationQueues = new RegistrationRing[0];
+
+
+    /**
+     * @param matchDispatcher dispatcher to report backlog of
+     */
+    MatchMakerMetrics(int minRank, int maxRank, MatchDispatcher matchDispatcher) {
+        this.minRank = minRank;
+        this.rankCount = maxRank - minRank + 1;
+        this.matchDispatcher = matchDispatcher;
+        rankWaits = new LogHistogram[Math.min(rankCount, MAX_RANK_WAIT_BUCKETS)];
+        for (int i = 0; i < rankWaits.length; i++) rankWaits[i] = new LogHistogram();
+        queueDepths = new AtomicIntegerArray(rankCount);
+    }
+
+
+    private int rankWaitBucket(int rankIndex){
+        return (int) ((long) rankIndex * rankWaits.length / rankCount);
+    }
+
+
+    /**
+     * @return lowest rank of every rank wait bucket
+     */
+    int[] rankWaitMinRanks(){
+        int[] result = new int[rankWaits.length];
+        //first rank index r with r * buckets / rankCount == bucket
+        for (int i = 0; i < result.length; i++) result[i] = minRank + (int) (((long) i * rankCount + rankWaits.length - 1) / rankWaits.length);
+        return result;
+    }
+
+
+    /**
+     * @param now time match is selected at
+     */
+    void recordMatch(SelectedMatch match, long now){
+        boolean mixed = false;
+        for (int i = 0; i < match.size(); i++){
+            long wait = now - match.enterTimes[i];
+            waits.record(wait);
+            rankWaits[rankWaitBucket(match.ranks[i] - minRank)].record(wait);
+            mixed |= match.ranks[i] != match.ranks[0];
+        }
+        (mixed ? mixedRankMatches : sameRankMatches).incrementAndGet();
+    }
+
+
+    /**
+     * Adds ring registrations wait for selector in, sharded match maker adds ring of every shard.
+     */
+    synchronized void registrationQueue(RegistrationRing ring){
+        RegistrationRing[] queues = Arrays.copyOf(registrationQueues, registrationQueues.length + 1);
+        queues[queues.length - 1] = ring;
+        registrationQueues = queues;
+    }
+
+
+    void recordCycleTime(long nanos){
+        cycleTimes.record(nanos);
+        cycleCount.incrementAndGet();
+    }
+
+
+    void recordHardCaseTime(long nanos){
+        hardCaseTimes.record(nanos);
+    }
+
+
+    void queueDepth(int rankIndex, int depth){
+        int previous = queueDepths.getAndSet(rankIndex, depth);
+        if (previous != depth) waitingPlayers.addAndGet(depth - previous);
+    }
+
+
+    int queueDepth(int rankIndex){
+        return queueDepths.get(rankIndex);
+    }
+
+
+    int waitingPlayers(){
+        return waitingPlayers.get();
+    }
+
+
+    long cycleCount(){
+        return cycleCount.get();
+    }
+
+
+    /**
+     * @return nanos registrations wait in ring for selector to take them now, longest of all rings
+     */
+    long selectorLag(){
+        long lag = 0;
+        for (RegistrationRing ring : registrationQueues) lag = Math.max(lag, ring.queueingDelay());
+        return lag;
+    }
+
+
+    MatchDispatcher matchDispatcher(){
+        return matchDispatcher;
+    }
+
+
+    Snapshot snapshot(){
+        return new Snapshot(this);
+    }
+
+
+    /**
+     * Registers metrics in platform MBean server.
+     * @param name name property of MBean object name
+     */
+    void registerMBean(String name){
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("alternativa.test.task1:type=MatchMaker,name=" + name));
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Consistent enough copy of all metrics taken at once.
+     */
+    static class Snapshot {
+        final long sameRankMatches;
+        final long mixedRankMatches;
+        final int[] queueDepths;
+        final LogHistogram.Snapshot waits;
+        //per rank bucket, see rankWaitMinRanks()
+        final LogHistogram.Snapshot[] rankWaits;
+        final LogHistogram.Snapshot cycleTimes;
+        final LogHistogram.Snapshot hardCaseTimes;
+        final int pendingMatches;
+        final long dispatchStalls;
+
+        private Snapshot(MatchMakerMetrics metrics) {
+            sameRankMatches = metrics.sameRankMatches.get();
+            mixedRankMatches = metrics.mixedRankMatches.get();
+            queueDepths = new int[metrics.queueDepths.length()];
+            for (int i = 0; i < queueDepths.length; i++) queueDepths[i] = metrics.queueDepths.get(i);
+            waits = metrics.waits.snapshot();
+            rankWaits = new LogHistogram.Snapshot[metrics.rankWaits.length];
+            for (int i = 0; i < rankWaits.length; i++) rankWaits[i] = metrics.rankWaits[i].snapshot();
+            cycleTimes = metrics.cycleTimes.snapshot();
+            hardCaseTimes = metrics.hardCaseTimes.snapshot();
+            pendingMatches = metrics.matchDispatcher.pendingMatches();
+            dispatchStalls = metrics.matchDispatcher.stallCount();
+        }
+
+        int waitingPlayers(){
+            int count = 0;
+            for (int depth : queueDepths) count += depth;
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "matches %d same rank, %d mixed rank; waiting %d; wait ms p50 %d p99 %d max %d; " +
+                    "cycle us p50 %d p99 %d; hard cases us p99 %d; pending matches %d, dispatch stalls %d",
+                    sameRankMatches, mixedRankMatches, waitingPlayers(), waits.quantile(0.5), waits.quantile(0.99), waits.max(),
+                    micros(cycleTimes.quantile(0.5)), micros(cycleTimes.quantile(0.99)), micros(hardCaseTimes.quantile(0.99)),
+                    pendingMatches, dispatchStalls);
+        }
+    }
+
+
+    private static long micros(long nanos){
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+
+    //MXBean attributes
+
+    public long getSameRankMatches(){
+        return sameRankMatches.get();
+    }
+
+    public long getMixedRankMatches(){
+        return mixedRankMatches.get();
+    }
+
+    public int[] getQueueDepths(){
+        int[] result = new int[queueDepths.length()];
+        for (int i = 0; i < result.length; i++) result[i] = queueDepths.get(i);
+        return result;
+    }
+
+    public long getWaitP50Millis(){
+        return waits.snapshot().quantile(0.5);
+    }
+
+    public long getWaitP99Millis(){
+        return waits.snapshot().quantile(0.99);
+    }
+
+    public long getWaitMaxMillis(){
+        return waits.snapshot().max();
+    }
+
+    public long[] getRankWaitP50Millis(){
+        return rankWaitQuantiles(0.5);
+    }
+
+    public long[] getRankWaitP99Millis(){
+        return rankWaitQuantiles(0.99);
+    }
+
+    public int[] getRankWaitMinRanks(){
+        return rankWaitMinRanks();
+    }
+
+    public long getCycleTimeP50Micros(){
+        return micros(cycleTimes.snapshot().quantile(0.5));
+    }
+
+    public long getCycleTimeP99Micros(){
+        return micros(cycleTimes.snapshot().quantile(0.99));
+    }
+
+    public long getHardCaseTimeP99Micros(){
+        return micros(hardCaseTimes.snapshot().quantile(0.99));
+    }
+
+    public int getPendingMatches(){
+        return matchDispatcher.pendingMatches();
+    }
+
+    public long getDispatchStalls(){
+        return matchDispatcher.stallCount();
+    }
+
+    private long[] rankWaitQuantiles(double quantile){
+        long[] result = new long[rankWaits.length];
+        for (int i = 0; i < result.length; i++) result[i] = rankWaits[i].snapshot().quantile(quantile);
+        return result;
+    }
+
+}
@@ -0,0 +1,37 @@
+package alternativa.test.task1;
+
+/**
+ * Match maker metrics exposed through JMX, wait times are in millis, selector times in micros.
+ * Rank wait times are reported per rank bucket, buckets start at ranks of {@link #getRankWaitMinRanks()}.
+ */
+public interface MatchMakerMetricsMXBean {
+
+    long getSameRankMatches();
+
+    long getMixedRankMatches();
+
+    int[] getQueueDepths();
+
+    long getWaitP50Millis();
+
+    long getWaitP99Millis();
+
+    long getWaitMaxMillis();
+
+    long[] getRankWaitP50Millis();
+
+    long[] getRankWaitP99Millis();
+
+    int[] getRankWaitMinRanks();
+
+    long getCycleTimeP50Micros();
+
+    long getCycleTimeP99Micros();
+
+    long getHardCaseTimeP99Micros();
+
+    int getPendingMatches();
+
+    long getDispatchStalls();
+
+}
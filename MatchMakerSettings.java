@@ -0,0 +1,143 @@
+package alternativa.test.task1;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Optional match maker tuning, defaults keep behaviour of constructors without settings.
+ * Values are read once by match maker constructor.
+ */
+class MatchMakerSettings {
+
+    MatchMaker.DuplicatePolicy duplicatePolicy = MatchMaker.DuplicatePolicy.KEEP_FIRST;
+    MatchClock clock = MatchClock.SYSTEM;
+    MatchMaker.SelectionPolicy selectionPolicy = MatchMaker.SelectionPolicy.NEWEST_FIRST;
+    long maxWait = Long.MAX_VALUE;
+    long deadlineLead;
+    long packingBudget;
+    MatchJournal journal;
+    ForkJoinPool searchPool;
+    int parallelSearchPlayers = Integer.MAX_VALUE;
+    MatchMaker.OnPlayerHandOffListener handOffListener;
+    int handOffMinRank;
+    int handOffMaxRank;
+    MatchMaker.OnPlayerReleasedListener releaseListener;
+
+
+    MatchMakerSettings duplicatePolicy(MatchMaker.DuplicatePolicy duplicatePolicy){
+        this.duplicatePolicy = duplicatePolicy;
+        return this;
+    }
+
+
+    MatchMakerSettings clock(MatchClock clock){
+        this.clock = clock;
+        return this;
+    }
+
+
+    MatchMakerSettings selectionPolicy(MatchMaker.SelectionPolicy selectionPolicy){
+        this.selectionPolicy = selectionPolicy;
+        return this;
+    }
+
+
+    /**
+     * Sets max wait of {@link MatchMaker.SelectionPolicy#DEADLINE} policy with lead of half of it.
+     * @param maxWait wait time in millis players should be matched within
+     */
+    MatchMakerSettings maxWait(long maxWait){
+        return maxWait(maxWait, maxWait / 2);
+    }
+
+
+    /**
+     * @param maxWait wait time in millis players should be matched within by {@link MatchMaker.SelectionPolicy#DEADLINE} policy
+     * @param lead millis before max wait players are taken first from, 0 to take first only players past max wait
+     */
+    MatchMakerSettings maxWait(long maxWait, long lead){
+        if (maxWait < 0 || lead < 0 || lead > maxWait) throw new IllegalArgumentException();
+        this.maxWait = maxWait;
+        this.deadlineLead = lead;
+        return this;
+    }
+
+
+    /**
+     * @param packingBudget time in nanos per selector cycle to improve packing of all hard cases to matches,
+     *                      0 to search hard case matches greedily one by one
+     */
+    MatchMakerSettings packingBudget(long packingBudget){
+        if (packingBudget < 0) throw new IllegalArgumentException();
+        this.packingBudget = packingBudget;
+        return this;
+    }
+
+
+    /**
+     * @param journal persistence of waiting players, they are recovered from it by match maker constructor
+     */
+    MatchMakerSettings journal(MatchJournal journal){
+        this.journal = journal;
+        return this;
+    }
+
+
+    /**
+     * @param pool pool hard case search is split between workers of
+     * @param minPlayers hard cases count search is split from, smaller searches are not worth tasks overhead
+     */
+    MatchMakerSettings parallelSearch(ForkJoinPool pool, int minPlayers){
+        if (pool == null || minPlayers <= 0) throw new IllegalArgumentException();
+        this.searchPool = pool;
+        this.parallelSearchPlayers = minPlayers;
+        return this;
+    }
+
+
+    /**
+     * Makes match maker serving part of wider rank range give up players which tolerance covers whole own range
+     * and reaches past it, so they could be matched by match maker of whole range.
+     * Registrations of whole range are taken, ranks out of own range are given up at once.
+     * While listener reports player as handed off, his registrations and unregistrations
+     * (rank {@link RegistrationRing#UNREGISTER}) are passed to listener in order taken, so he never waits in both.
+     * @param minRank min rank of whole range
+     * @param maxRank max rank of whole range
+     * @param listener listener taking players given up, called by match selector thread
+     */
+    MatchMakerSettings handOff(int minRank, int maxRank, MatchMaker.OnPlayerHandOffListener listener){
+        if (maxRank < minRank || listener == null) throw new IllegalArgumentException();
+        this.handOffMinRank = minRank;
+        this.handOffMaxRank = maxRank;
+        this.handOffListener = listener;
+        return this;
+    }
+
+
+    /**
+     * @param listener listener learning when every registration taken is over, called by match selector thread
+     */
+    MatchMakerSettings releaseListener(MatchMaker.OnPlayerReleasedListener listener){
+        this.releaseListener = listener;
+        return this;
+    }
+
+
+    MatchMakerSettings copy(){
+        MatchMakerSettings copy = new MatchMakerSettings();
+        copy.duplicatePolicy = duplicatePolicy;
+        copy.clock = clock;
+        copy.selectionPolicy = selectionPolicy;
+        copy.maxWait = maxWait;
+        copy.deadlineLead = deadlineLead;
+        copy.packingBudget = packingBudget;
+        copy.journal = journal;
+        copy.searchPool = searchPool;
+        copy.parallelSearchPlayers = parallelSearchPlayers;
+        copy.handOffListener = handOffListener;
+        copy.handOffMinRank = handOffMinRank;
+        copy.handOffMaxRank = handOffMaxRank;
+        copy.releaseListener = releaseListener;
+        return copy;
+    }
+
+}
@@ -0,0 +1,229 @@
+package alternativa.test.task1;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Packs disjoint matches of mutually compatible players, maximizing count of matched players first
+ * and their total weight (e.g. wait time) next.
+ * First packing is greedy taking most constrained players (fewest compatible ones) first, it is always completed
+ * and is maximal: no match is left among unmatched players. While time budget lasts packing is improved
+ * by randomized greedy restarts and by replacing single match with two made of its players and unmatched ones.
+ * Scratch space is reused between calls. Not thread safe.
+ */
+class MatchPacker {
+
+    //restarts stop after so many ones not improving packing even if budget lasts
+    private static final int MAX_FRUITLESS_RESTARTS = 16;
+
+    private final int matchPlayerCount;
+    private final Random random;
+
+    private long[] free = new long[0];
+    private long[] mask = new long[0];
+    private long[] saved = new long[0];
+    private long[] keys = new long[0];
+    private int[] order = new int[0];
+    private int[] current = new int[0];
+    private int[] best = new int[0];
+    private final int[] found;
+
+
+    /**
+     * @param seed randomized restarts seed, the same seed and input give the same packing if budget is not exceeded
+     */
+    MatchPacker(int matchPlayerCount, long seed) {
+        this.matchPlayerCount = matchPlayerCount;
+        this.random = new Random(seed);
+        this.found = new int[matchPlayerCount];
+    }
+
+
+    /**
+     * @param matrix players compatibility
+     * @param players bitset of players to pack
+     * @param weights player weights, players of heavier packing are preferred if matched players count is the same
+     * @param result array to put players of matches to, match after match, at least count of players long
+     * @param deadline {@link System#nanoTime()} to stop improving packing at
+     * @return count of matches
+     */
+    int pack(CompatibilityMatrix matrix, long[] players, long[] weights, int[] result, long deadline){
+        int words = matrix.words();
+        int size = matrix.size();
+        ensureCapacity(words, size);
+
+        //players by count of compatible ones, lower slots first if equal
+        int playerCount = 0;
+        for (int w = 0; w < words; w++){
+            long bits = players[w];
+            while (bits != 0){
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int degree = matrix.degree(i, players);
+                //players not having enough compatible ones are never matched
+                if (degree + 1 >= matchPlayerCount) keys[playerCount++] = (long) degree << 32 | i;
+            }
+        }
+        if (playerCount < matchPlayerCount) return 0;
+        Arrays.sort(keys, 0, playerCount);
+        for (int k = 0; k < playerCount; k++) order[k] = (int) keys[k];
+
+        int bestCount = greedy(matrix, players, playerCount, best);
+        bestCount = splitMatches(matrix, players, bestCount, deadline);
+        long bestWeight = weight(best, bestCount, weights);
+
+        //randomized restarts: order by count of compatible ones stretched by up to half
+        int fruitless = 0;
+        while (fruitless < MAX_FRUITLESS_RESTARTS && bestCount * matchPlayerCount + matchPlayerCount <= playerCount && System.nanoTime() < deadline){
+            for (int k = 0; k < playerCount; k++){
+                int i = order[k];
+                long degree = matrix.degree(i, players);
+                keys[k] = (long) (degree * (1 + random.nextDouble() * 0.5)) << 32 | i;
+            }
+            Arrays.sort(keys, 0, playerCount);
+            for (int k = 0; k < playerCount; k++) order[k] = (int) keys[k];
+
+            int count = greedy(matrix, players, playerCount, current);
+            long weight = weight(current, count, weights);
+            if (count > bestCount || count == bestCount && weight > bestWeight){
+                int[] swap = best;
+                best = current;
+                current = swap;
+                bestCount = splitMatches(matrix, players, count, deadline);
+                bestWeight = weight(best, bestCount, weights);
+                fruitless = 0;
+            }else{
+                fruitless++;
+            }
+        }
+
+        System.arraycopy(best, 0, result, 0, bestCount * matchPlayerCount);
+        return bestCount;
+    }
+
+
+    //greedy packing with players taken in order
+    private int greedy(CompatibilityMatrix matrix, long[] players, int playerCount, int[] target){
+        int words = matrix.words();
+        System.arraycopy(players, 0, free, 0, words);
+        int count = 0;
+        for (int k = 0; k < playerCount; k++){
+            int seed = order[k];
+            if ((free[seed >>> 6] & (1L << seed)) == 0) continue;
+            if (matchWith(matrix, seed, target, count * matchPlayerCount)) count++;
+        }
+        return count;
+    }
+
+
+    /**
+     * Searches match of seed player and free players, takes its players from free ones.
+     */
+    private boolean matchWith(CompatibilityMatrix matrix, int seed, int[] target, int offset){
+        if (matrix.neighbours(seed, free, mask) + 1 < matchPlayerCount) return false;
+        prune(matrix, matchPlayerCount - 2);
+        if (!matrix.findClique(mask, matchPlayerCount - 1, found)) return false;
+
+        target[offset] = seed;
+        System.arraycopy(found, 0, target, offset + 1, matchPlayerCount - 1);
+        take(target, offset);
+        return true;
+    }
+
+
+    /**
+     * Searches any match of free players, takes its players from free ones.
+     */
+    private boolean matchAny(CompatibilityMatrix matrix, int[] target, int offset){
+        System.arraycopy(free, 0, mask, 0, matrix.words());
+        prune(matrix, matchPlayerCount - 1);
+        if (!matrix.findClique(mask, matchPlayerCount, found)) return false;
+
+        System.arraycopy(found, 0, target, offset, matchPlayerCount);
+        take(target, offset);
+        return true;
+    }
+
+
+    /**
+     * Replaces matches of best packing with two matches made of their players and unmatched ones where possible.
+     * @return count of matches in best packing now
+     */
+    private int splitMatches(CompatibilityMatrix matrix, long[] players, int count, long deadline){
+        int words = matrix.words();
+        for (int m = 0; m < count && System.nanoTime() < deadline; m++){
+            //free players are unmatched ones and players of match m
+            System.arraycopy(players, 0, free, 0, words);
+            for (int p = 0; p < count * matchPlayerCount; p++){
+                if (p / matchPlayerCount != m) free[best[p] >>> 6] &= ~(1L << best[p]);
+            }
+            System.arraycopy(free, 0, saved, 0, words);
+
+            //second match must take some unmatched player, so first one is searched for every unmatched player
+            for (int k = 0; k < order.length && order[k] >= 0; k++){
+                int seed = order[k];
+                if ((saved[seed >>> 6] & (1L << seed)) == 0 || contains(best, m, seed)) continue;
+                System.arraycopy(saved, 0, free, 0, words);
+                if (!matchWith(matrix, seed, current, 0)) continue;
+                if (!matchAny(matrix, current, matchPlayerCount)) continue;
+
+                //match m is replaced by first new one, second new one is appended
+                System.arraycopy(current, 0, best, m * matchPlayerCount, matchPlayerCount);
+                System.arraycopy(current, matchPlayerCount, best, count * matchPlayerCount, matchPlayerCount);
+                count++;
+                break;
+            }
+        }
+        return count;
+    }
+
+
+    private boolean contains(int[] matches, int m, int player){
+        for (int p = m * matchPlayerCount; p < (m + 1) * matchPlayerCount; p++){
+            if (matches[p] == player) return true;
+        }
+        return false;
+    }
+
+
+    //drops candidates having less than required compatible ones among candidates
+    private void prune(CompatibilityMatrix matrix, int required){
+        for (int w = 0; w < matrix.words(); w++){
+            long candidates = mask[w];
+            while (candidates != 0){
+                int i = (w << 6) + Long.numberOfTrailingZeros(candidates);
+                candidates &= candidates - 1;
+                if (matrix.degree(i, mask) < required) mask[w] &= ~(1L << i);
+            }
+        }
+    }
+
+
+    private void take(int[] match, int offset){
+        for (int p = offset; p < offset + matchPlayerCount; p++) free[match[p] >>> 6] &= ~(1L << match[p]);
+    }
+
+
+    private long weight(int[] matches, int count, long[] weights){
+        long weight = 0;
+        for (int p = 0; p < count * matchPlayerCount; p++) weight += weights[matches[p]];
+        return weight;
+    }
+
+
+    private void ensureCapacity(int words, int size){
+        if (free.length < words){
+            free = new long[words];
+            mask = new long[words];
+            saved = new long[words];
+        }
+        if (order.length < size){
+            keys = new long[size];
+            order = new int[size];
+            current = new int[size + matchPlayerCount];
+            best = new int[size + matchPlayerCount];
+        }
+        Arrays.fill(order, -1);
+    }
+
+}
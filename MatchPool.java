@@ -0,0 +1,57 @@
+package alternativa.test.task1;
+
+import java.util.Arrays;
+
+/**
+ * Pool of selected matches, so steady match making allocates nothing per match.
+ * Matches are taken by match selector and given back by dispatcher after match created listener returns.
+ * Thread safe, lock is held for a few instructions only.
+ */
+class MatchPool {
+
+    private final int maxPooled;
+    private SelectedMatch[] matches = new SelectedMatch[16];
+    private int count;
+
+
+    /**
+     * @param maxPooled max count of free matches kept, matches given back above it are left to GC
+     */
+    MatchPool(int maxPooled) {
+        if (maxPooled < 0) throw new IllegalArgumentException();
+        this.maxPooled = maxPooled;
+    }
+
+
+    /**
+     * @return match to fill with {@link SelectedMatch#set}
+     */
+    SelectedMatch acquire(int matchPlayerCount){
+        synchronized (this){
+            //all matches of match maker have the same size, pool of other size is left to GC
+            if (count > 0 && matches[count - 1].size() == matchPlayerCount){
+                SelectedMatch match = matches[--count];
+                matches[count] = null;
+                return match;
+            }
+        }
+        return new SelectedMatch(matchPlayerCount);
+    }
+
+
+    void release(SelectedMatch match){
+        synchronized (this){
+            if (count >= maxPooled) return;
+            if (count == matches.length) matches = Arrays.copyOf(matches, Math.min(count * 2, maxPooled));
+            matches[count++] = match;
+        }
+    }
+
+
+    int size(){
+        synchronized (this){
+            return count;
+        }
+    }
+
+}
@@ -0,0 +1,284 @@
+package alternativa.test.task1;
+
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stream of created matches for consumers which may be slower than match making (game server allocation, logging).
+ * Is used as match created listener of dispatcher, every subscriber gets every match created after it subscribed,
+ * in creation order, no more than it requested. Match players lent by dispatcher are copied to buffers,
+ * so match creation allocates nothing, subscriber gets new players it may keep.
+ *
+ * Matches not requested yet are kept per subscriber in bounded ring of uids and ranks.
+ * When ring is full, thread creating match waits for subscriber, so backpressure reaches dispatcher
+ * and selector through pending matches limit instead of matches being lost.
+ * Matches are delivered by executor, every delivery run passes all requested matches buffered so far.
+ */
+class MatchPublisher implements Flow.Publisher<Player[]>, MatchMaker.OnBorrowedMatchCreatedListener {
+
+    static final int DEFAULT_BUFFERED_MATCHES = 1024;
+
+    private final int matchPlayerCount;
+    private final int bufferedMatches;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final CopyOnWriteArrayList<MatchSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    //metrics
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong stallCount = new AtomicLong();
+
+
+    MatchPublisher(int matchPlayerCount) {
+        this(matchPlayerCount, DEFAULT_BUFFERED_MATCHES, null);
+    }
+
+
+    /**
+     * @param bufferedMatches max count of matches kept for every subscriber until it requests them
+     * @param executor executor delivering matches to subscribers, null for own single daemon thread
+     */
+    MatchPublisher(int matchPlayerCount, int bufferedMatches, Executor executor) {
+        if (matchPlayerCount <= 0 || bufferedMatches <= 0) throw new IllegalArgumentException();
+        this.matchPlayerCount = matchPlayerCount;
+        this.bufferedMatches = bufferedMatches;
+        if (executor == null){
+            ownExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "Match publisher");
+                t.setDaemon(true);
+                return t;
+            });
+            this.executor = ownExecutor;
+        }else{
+            ownExecutor = null;
+            this.executor = executor;
+        }
+    }
+
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Player[]> subscriber){
+        Objects.requireNonNull(subscriber);
+        MatchSubscription subscription = new MatchSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        if (closed){
+            subscription.complete();
+            return;
+        }
+        subscriptions.add(subscription);
+        //cancelled in onSubscribe before it was listed
+        if (subscription.cancelled) subscriptions.remove(subscription);
+    }
+
+
+    /**
+     * Buffers match for every subscriber, waits while some subscriber buffer is full.
+     */
+    @Override
+    public void onMatchCreated(int[] uids, int[] ranks){
+        if (uids.length != matchPlayerCount || ranks.length != matchPlayerCount) throw new IllegalArgumentException();
+        if (closed) return;
+        for (MatchSubscription s : subscriptions) s.offer(uids, ranks);
+        publishedCount.incrementAndGet();
+    }
+
+
+    @Override
+    public void onMatchCreated(Player... players){
+        int[] uids = new int[players.length];
+        int[] ranks = new int[players.length];
+        for (int i = 0; i < players.length; i++){
+            uids[i] = players[i].uid;
+            ranks[i] = players[i].rank;
+        }
+        onMatchCreated(uids, ranks);
+    }
+
+
+    /**
+     * Completes subscribers after they receive matches buffered for them, matches created later are ignored.
+     * Own delivery thread stops when every subscriber is completed or cancelled.
+     */
+    void close(){
+        closed = true;
+        for (MatchSubscription s : subscriptions) s.complete();
+        stopWhenDone();
+    }
+
+
+    //subscriptions leave list when terminated, so no more delivery runs are needed after close then
+    private void stopWhenDone(){
+        if (closed && subscriptions.isEmpty() && ownExecutor != null) ownExecutor.shutdown();
+    }
+
+
+    int subscriberCount(){
+        return subscriptions.size();
+    }
+
+
+    long publishedCount(){
+        return publishedCount.get();
+    }
+
+
+    /**
+     * @return count of matches which had to wait for subscriber buffer room
+     */
+    long stallCount(){
+        return stallCount.get();
+    }
+
+
+    private class MatchSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Player[]> subscriber;
+        private final int[] uids = new int[bufferedMatches * matchPlayerCount];
+        private final int[] ranks = new int[bufferedMatches * matchPlayerCount];
+        private final Semaphore freeSlots = new Semaphore(bufferedMatches);
+        //matches written by creating threads, guarded by this
+        private long written;
+        //matches visible to delivery
+        private volatile long published;
+        //matches delivered, owned by delivery run
+        private long delivered;
+
+        private final AtomicLong requested = new AtomicLong();
+        //delivery runs requested, only one run is active at a time
+        private final AtomicInteger pendingRuns = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private boolean terminated;
+
+
+        MatchSubscription(Flow.Subscriber<? super Player[]> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+
+        void offer(int[] matchUids, int[] matchRanks){
+            if (cancelled) return;
+            if (!freeSlots.tryAcquire()){
+                stallCount.incrementAndGet();
+                freeSlots.acquireUninterruptibly();
+            }
+            //subscriber cancelled while buffer was full
+            if (cancelled) return;
+            synchronized (this){
+                int offset = (int) (written % bufferedMatches) * matchPlayerCount;
+                System.arraycopy(matchUids, 0, uids, offset, matchPlayerCount);
+                System.arraycopy(matchRanks, 0, ranks, offset, matchPlayerCount);
+                published = ++written;
+            }
+            schedule();
+        }
+
+
+        void complete(){
+            completed = true;
+            schedule();
+        }
+
+
+        @Override
+        public void request(long n){
+            if (n <= 0){
+                //rule 3.9 of reactive streams, signalled by delivery run
+                cancelled = true;
+                requested.set(-1);
+            }else{
+                long current;
+                do {
+                    current = requested.get();
+                    if (current < 0) return;
+                } while (!requested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            }
+            schedule();
+        }
+
+
+        @Override
+        public void cancel(){
+            cancelled = true;
+            subscriptions.remove(this);
+            //creating threads waiting for room must not wait forever
+            freeSlots.release(bufferedMatches);
+            stopWhenDone();
+        }
+
+
+        private void schedule(){
+            if (pendingRuns.getAndIncrement() != 0) return;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                //executor is shut down, this thread owns delivery run then
+                run();
+            }
+        }
+
+
+        //delivery run, signals to subscriber are never concurrent
+        @Override
+        public void run(){
+            int runs = 1;
+            while (true){
+                deliver();
+                runs = pendingRuns.addAndGet(-runs);
+                if (runs == 0) return;
+            }
+        }
+
+
+        private void deliver(){
+            if (terminated) return;
+            if (requested.get() < 0){
+                terminated = true;
+                cancel();
+                subscriber.onError(new IllegalArgumentException());
+                return;
+            }
+            if (cancelled){
+                terminated = true;
+                return;
+            }
+
+            long available = published;
+            long demand = requested.get();
+            long sent = 0;
+            while (sent < demand && delivered < available && !cancelled){
+                int offset = (int) (delivered % bufferedMatches) * matchPlayerCount;
+                Player[] match = new Player[matchPlayerCount];
+                for (int i = 0; i < matchPlayerCount; i++) match[i] = new Player(uids[offset + i], ranks[offset + i]);
+                delivered++;
+                freeSlots.release();
+                sent++;
+                try {
+                    subscriber.onNext(match);
+                } catch (RuntimeException e) {
+                    //rule 2.13 of reactive streams, throwing subscriber is cancelled
+                    terminated = true;
+                    cancel();
+                    return;
+                }
+            }
+            if (sent > 0 && demand != Long.MAX_VALUE) requested.addAndGet(-sent);
+
+            if (completed && delivered == published && !cancelled){
+                terminated = true;
+                subscriptions.remove(this);
+                subscriber.onComplete();
+                stopWhenDone();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,502 @@
+package alternativa.test.task1;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TCP front end of match maker, one NIO selector thread serves all connections.
+ * Protocol is ASCII lines, commands may be pipelined without waiting for anything:
+ * "(user rank)" registers player, "(user)" unregisters him, parentheses are optional;
+ * "subscribe" makes connection receive every created match as "(time user[0] ... user[7])" line.
+ * With admission control registration match maker has no room for is answered with "(rejected user millis)" line,
+ * it may be retried after given millis.
+ * Command match maker registration queue has no room for is retried by server, connection is not read meanwhile,
+ * so selector thread never waits and sender is held back by TCP flow control.
+ * Malformed command or rank match maker does not support closes connection.
+ *
+ * Connection input buffers and match output chunks are pooled direct buffers.
+ * Output chunk is shared by all subscribers and written with gathering writes,
+ * subscriber falling more than {@link #MAX_PENDING_CHUNKS} chunks behind is disconnected.
+ */
+class MatchServer {
+
+    static final int DEFAULT_PORT = 7070;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    static final int MAX_PENDING_CHUNKS = 256;
+    private static final long STALL_RETRY_MILLIS = 1;
+    private static final byte[] SUBSCRIBE = "subscribe".getBytes();
+    private static final byte[] REJECTED = "(rejected ".getBytes();
+
+    private final int port;
+    private final DirectBufferPool bufferPool = new DirectBufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    //matches created by dispatcher threads, {time, uids...}
+    private final ConcurrentLinkedQueue<long[]> createdMatches = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final List<Connection> subscribers = new ArrayList<>();
+    //connections waiting for room in registration queue
+    private final ArrayDeque<Connection> stalledConnections = new ArrayDeque<>();
+
+    private volatile boolean run;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private SteppableMatchMaker matchMaker;
+    private AdmissionControl admissionControl;
+
+    //metrics, written by selector thread only
+    private volatile long registrationCount;
+    private volatile long rejectedCount;
+    private volatile long connectionCount;
+    private volatile long droppedSubscriberCount;
+
+
+    /**
+     * @param port port to listen at, 0 for any free one
+     */
+    MatchServer(int port) {
+        if (port < 0 || port > 65535) throw new IllegalArgumentException();
+        this.port = port;
+    }
+
+
+    /**
+     * Starts listening and passing registrations to match maker.
+     */
+    void start(SteppableMatchMaker matchMaker) throws IOException {
+        start(matchMaker, null);
+    }
+
+
+    /**
+     * Starts listening and passing registrations to match maker through admission control.
+     * @param admissionControl admission control of the same match maker, null to register players directly
+     */
+    void start(SteppableMatchMaker matchMaker, AdmissionControl admissionControl) throws IOException {
+        if (selectorThread != null) throw new IllegalStateException();
+        this.matchMaker = matchMaker;
+        this.admissionControl = admissionControl;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        run = true;
+        selectorThread = new Thread(this::serve, "Match server");
+        selectorThread.start();
+    }
+
+
+    /**
+     * Stops serving and closes all connections.
+     */
+    void stop() throws InterruptedException {
+        run = false;
+        if (selector != null) selector.wakeup();
+        if (selectorThread != null) selectorThread.join();
+    }
+
+
+    /**
+     * @return port server listens at, actual one if started at port 0, port given to constructor before start
+     */
+    int port(){
+        return serverChannel == null ? port : serverChannel.socket().getLocalPort();
+    }
+
+
+    /**
+     * Sends match to subscribers, may be called from any thread.
+     */
+    void onMatchCreated(Player... players){
+        //nobody to send to
+        if (!run) return;
+        long[] match = new long[players.length + 1];
+        match[0] = System.currentTimeMillis();
+        for (int i = 0; i < players.length; i++) match[i + 1] = players[i].uid;
+        createdMatches.add(match);
+        //one wakeup is enough for all matches created while selector thread is busy
+        if (wakeupPending.compareAndSet(false, true)) selector.wakeup();
+    }
+
+
+    long registrationCount(){
+        return registrationCount;
+    }
+
+
+    long rejectedCount(){
+        return rejectedCount;
+    }
+
+
+    long connectionCount(){
+        return connectionCount;
+    }
+
+
+    long droppedSubscriberCount(){
+        return droppedSubscriberCount;
+    }
+
+
+    private void serve(){
+        try {
+            while (run){
+                selector.select(stalledConnections.isEmpty() ? 0 : STALL_RETRY_MILLIS);
+                wakeupPending.set(false);
+                publishMatches();
+                resumeStalled();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()){
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) connection.read();
+                        if (key.isValid() && key.isWritable()) connection.flush();
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (SelectionKey key : selector.keys()){
+                if (key.attachment() instanceof Connection) ((Connection) key.attachment()).close();
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connectionCount++;
+    }
+
+
+    private void resumeStalled(){
+        for (int i = stalledConnections.size(); i > 0; i--){
+            Connection connection = stalledConnections.poll();
+            if (connection.closed) continue;
+            connection.stalled = false;
+            try {
+                connection.execute();
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+    }
+
+
+    /**
+     * Encodes created matches to shared chunks and queues chunks to every subscriber.
+     */
+    private void publishMatches(){
+        if (createdMatches.isEmpty()) return;
+        ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+        Chunk chunk = null;
+        long[] match;
+        while ((match = createdMatches.poll()) != null){
+            //"(" + 20 digits time + players * (space + sign + 10 digits uid) + ")\n"
+            if (chunk == null || chunk.buffer.remaining() < 23 + 12 * (match.length - 1)){
+                chunk = new Chunk(bufferPool.acquire());
+                chunks.add(chunk);
+            }
+            ByteBuffer buffer = chunk.buffer;
+            buffer.put((byte) '(');
+            putNumber(buffer, match[0]);
+            for (int i = 1; i < match.length; i++){
+                buffer.put((byte) ' ');
+                putNumber(buffer, match[i]);
+            }
+            buffer.put((byte) ')').put((byte) '\n');
+        }
+
+        for (Chunk c : chunks){
+            c.buffer.flip();
+            //lagging subscribers are closed and leave list, so it is walked from the end
+            for (int i = subscribers.size() - 1; i >= 0; i--) subscribers.get(i).queue(c);
+            //nobody to send to
+            if (c.refs == 0) bufferPool.release(c.buffer);
+        }
+        for (int i = subscribers.size() - 1; i >= 0; i--){
+            Connection subscriber = subscribers.get(i);
+            try {
+                subscriber.flush();
+            } catch (IOException e) {
+                subscriber.close();
+            }
+        }
+    }
+
+
+    private static void putNumber(ByteBuffer buffer, long value){
+        if (value < 0){
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (divisor <= value / 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) buffer.put((byte) ('0' + value / divisor % 10));
+    }
+
+
+    /**
+     * Encoded match lines shared by subscribers, buffer goes back to pool when all of them wrote it.
+     */
+    private static class Chunk {
+        final ByteBuffer buffer;
+        int refs;
+
+        Chunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+
+    private class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer input;
+        //replies to commands read, queued after whole input is read
+        private Chunk replies;
+        private boolean subscriber;
+        private boolean closed;
+        //command at input start waits for room in registration queue, input is not read
+        private boolean stalled;
+        //chunks not written yet with own read positions in them
+        private final ArrayDeque<Chunk> pendingChunks = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> pendingViews = new ArrayDeque<>();
+        private final ByteBuffer[] gather = new ByteBuffer[16];
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.input = bufferPool.acquire();
+        }
+
+
+        void read() throws IOException {
+            int read = channel.read(input);
+            if (read < 0){
+                close();
+                return;
+            }
+            execute();
+        }
+
+
+        /**
+         * Executes whole lines of input, stops at command match maker has no room for till it is retried.
+         */
+        void execute() throws IOException {
+            input.flip();
+            int lineStart = input.position();
+            for (int i = lineStart; i < input.limit(); i++){
+                if (input.get(i) != '\n') continue;
+                if (!command(lineStart, i)){
+                    close();
+                    return;
+                }
+                //closed as lagging behind replies
+                if (closed) return;
+                if (stalled) break;
+                lineStart = i + 1;
+            }
+            input.position(lineStart);
+            input.compact();
+            if (stalled){
+                stalledConnections.add(this);
+            }else if (!input.hasRemaining()){
+                //line longer than whole buffer is never a command
+                close();
+                return;
+            }
+            if (replies != null) queueReplies();
+            //also switches reading off and on
+            flush();
+        }
+
+
+        /**
+         * Executes command of input bytes [start, end), marks connection stalled if match maker has no room for it.
+         * @return false if command is malformed
+         */
+        private boolean command(int start, int end){
+            long uid = -1;
+            long rank = -1;
+            int count = 0;
+            int i = start;
+            while (i < end){
+                byte b = input.get(i);
+                if (b == ' ' || b == '(' || b == ')' || b == '\r' || b == '\t'){
+                    i++;
+                }else if (b >= '0' && b <= '9'){
+                    if (count == 2) return false;
+                    long value = 0;
+                    while (i < end && (b = input.get(i)) >= '0' && b <= '9'){
+                        value = value * 10 + b - '0';
+                        if (value > Integer.MAX_VALUE) return false;
+                        i++;
+                    }
+                    if (count++ == 0) uid = value; else rank = value;
+                }else{
+                    return count == 0 && subscribe(i, end);
+                }
+            }
+
+            try {
+                if (count == 2 && admissionControl != null){
+                    long retryAfter = admissionControl.tryRegister((int) uid, (int) rank);
+                    if (retryAfter == AdmissionControl.ACCEPTED){
+                        registrationCount++;
+                    }else{
+                        replyRejected(uid, retryAfter);
+                        rejectedCount++;
+                    }
+                }else if (count == 2){
+                    if (!matchMaker.offerPlayer((int) uid, (int) rank)){
+                        stalled = true;
+                        return true;
+                    }
+                    registrationCount++;
+                }else if (count == 1){
+                    stalled = !matchMaker.offerUnregistration((int) uid);
+                }
+            } catch (UnsupportedOperationException e) {
+                //rank out of match maker range
+                return false;
+            }
+            return true;
+        }
+
+
+        private void replyRejected(long uid, long retryAfter){
+            //"(rejected " + 11 chars uid + space + 20 digits millis + ")\n"
+            if (replies != null && replies.buffer.remaining() < REJECTED.length + 34) queueReplies();
+            if (closed) return;
+            if (replies == null) replies = new Chunk(bufferPool.acquire());
+            ByteBuffer buffer = replies.buffer;
+            buffer.put(REJECTED);
+            putNumber(buffer, uid);
+            buffer.put((byte) ' ');
+            putNumber(buffer, retryAfter);
+            buffer.put((byte) ')').put((byte) '\n');
+        }
+
+
+        private void queueReplies(){
+            Chunk chunk = replies;
+            replies = null;
+            chunk.buffer.flip();
+            queue(chunk);
+            //connection was closed as lagging
+            if (chunk.refs == 0) bufferPool.release(chunk.buffer);
+        }
+
+
+        private boolean subscribe(int start, int end){
+            while (end > start && (input.get(end - 1) == '\r' || input.get(end - 1) == ' ')) end--;
+            if (end - start != SUBSCRIBE.length) return false;
+            for (int i = 0; i < SUBSCRIBE.length; i++){
+                if (input.get(start + i) != SUBSCRIBE[i]) return false;
+            }
+            if (!subscriber){
+                subscriber = true;
+                subscribers.add(this);
+            }
+            return true;
+        }
+
+
+        void queue(Chunk chunk){
+            if (closed) return;
+            if (pendingChunks.size() >= MAX_PENDING_CHUNKS){
+                droppedSubscriberCount++;
+                close();
+                return;
+            }
+            chunk.refs++;
+            pendingChunks.add(chunk);
+            pendingViews.add(chunk.buffer.duplicate());
+        }
+
+
+        void flush() throws IOException {
+            if (closed) return;
+            while (!pendingViews.isEmpty()){
+                int count = 0;
+                for (ByteBuffer view : pendingViews){
+                    gather[count++] = view;
+                    if (count == gather.length) break;
+                }
+                long written = channel.write(gather, 0, count);
+
+                while (!pendingViews.isEmpty() && !pendingViews.peekFirst().hasRemaining()){
+                    pendingViews.pollFirst();
+                    release(pendingChunks.pollFirst());
+                }
+                //socket buffer is full, rest is written when channel becomes writable
+                if (written == 0) break;
+            }
+            Arrays.fill(gather, null);
+            int ops = stalled ? 0 : SelectionKey.OP_READ;
+            key.interestOps(pendingViews.isEmpty() ? ops : ops | SelectionKey.OP_WRITE);
+        }
+
+
+        void close(){
+            if (closed) return;
+            closed = true;
+            if (subscriber) subscribers.remove(this);
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //nothing to do, connection is dropped anyway
+            }
+            bufferPool.release(input);
+            input = null;
+            if (replies != null){
+                bufferPool.release(replies.buffer);
+                replies = null;
+            }
+            while (!pendingChunks.isEmpty()) release(pendingChunks.pollFirst());
+            pendingViews.clear();
+        }
+
+
+        private void release(Chunk chunk){
+            if (--chunk.refs == 0) bufferPool.release(chunk.buffer);
+        }
+    }
+
+}
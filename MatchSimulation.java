@@ -0,0 +1,214 @@
+package alternativa.test.task1;
+
+import java.util.*;
+
+/**
+ * Discrete event simulation of match maker on virtual time.
+ * Seeded Poisson arrival trace is replayed through match maker, selector cycles are run
+ * right after arrivals and at wake times requested by match maker, nothing is waited for in real time.
+ * So hours of load are simulated in seconds and the same seed always gives the same report.
+ * Selector cycles may be aligned to fixed period instead, as of busy selector taking registrations in batches.
+ *
+ * Program arguments (all optional): arrivals per second, simulated minutes, seed, selector cycle period in millis.
+ */
+class MatchSimulation {
+
+    interface MatchMakerFactory {
+        SteppableMatchMaker create(MatchMakerSettings settings, MatchDispatcher matchDispatcher);
+    }
+
+    private static final int MATCH_PLAYERS_COUNT = 8;
+    private static final int MIN_RANK = 1;
+    private static final int MAX_RANK = 30;
+    private static final int RANK_INCREASE_TIMEOUT = 5000;
+    private static final long PACKING_BUDGET = 1000000;
+
+    private final long seed;
+    private final double arrivalsPerSecond;
+    private final long duration;
+    private final RankDistribution rankDistribution;
+    private long cyclePeriod;
+
+
+    /**
+     * @param seed arrival trace seed
+     * @param arrivalsPerSecond mean players arrival rate
+     * @param duration simulated time in millis
+     * @param rankDistribution arrived players ranks
+     */
+    MatchSimulation(long seed, double arrivalsPerSecond, long duration, RankDistribution rankDistribution) {
+        if (arrivalsPerSecond <= 0 || duration <= 0) throw new IllegalArgumentException();
+        this.seed = seed;
+        this.arrivalsPerSecond = arrivalsPerSecond;
+        this.duration = duration;
+        this.rankDistribution = rankDistribution;
+    }
+
+
+    /**
+     * @param cyclePeriod selector cycles are run only at multiples of period, 0 to run them right at arrivals
+     */
+    MatchSimulation cyclePeriod(long cyclePeriod){
+        if (cyclePeriod < 0) throw new IllegalArgumentException();
+        this.cyclePeriod = cyclePeriod;
+        return this;
+    }
+
+
+    /**
+     * Replays arrival trace through new match maker.
+     */
+    Report run(String name, MatchMakerFactory factory){
+        VirtualClock clock = new VirtualClock(0);
+        Report report = new Report(name, duration);
+
+        //matches are created right in selector cycle, so wait is measured at virtual time of match selection
+        long[][] arrivalTimes = {new long[1024]};
+        MatchDispatcher dispatcher = new MatchDispatcher(0, Integer.MAX_VALUE, 0, players -> {
+            report.matchCount++;
+            int minRank = Integer.MAX_VALUE;
+            int maxRank = Integer.MIN_VALUE;
+            for (Player p : players){
+                report.addWait(clock.currentTimeMillis() - arrivalTimes[0][p.uid]);
+                minRank = Math.min(minRank, p.rank);
+                maxRank = Math.max(maxRank, p.rank);
+            }
+            report.rankSpreadSum += maxRank - minRank;
+        });
+        SteppableMatchMaker matchMaker = factory.create(new MatchMakerSettings().clock(clock), dispatcher);
+
+        Random random = new Random(seed);
+        double arrivalTime = nextArrivalGap(random);
+        long nextCycleTime = SelectorWakeup.NEVER;
+        int uid = 0;
+
+        long realStartTime = System.nanoTime();
+        while (true){
+            long nextArrival = (long) arrivalTime;
+            long next = Math.min(nextArrival, nextCycleTime);
+            if (next > duration) break;
+            clock.advanceTo(next);
+
+            //all arrivals of the same millisecond come to one selector cycle
+            if (nextArrival == next) nextCycleTime = Math.min(nextCycleTime, cycleTime(next));
+            while ((long) arrivalTime == next){
+                if (uid == arrivalTimes[0].length) arrivalTimes[0] = Arrays.copyOf(arrivalTimes[0], uid * 2);
+                arrivalTimes[0][uid] = next;
+                matchMaker.registerPlayer(uid++, rankDistribution.nextRank(random));
+                arrivalTime += nextArrivalGap(random);
+            }
+
+            //wake time not in future would stall virtual time
+            if (nextCycleTime == next) nextCycleTime = cycleTime(Math.max(matchMaker.selectMatches(), next + 1));
+        }
+        report.realTime = System.nanoTime() - realStartTime;
+        report.arrivals = uid;
+        return report;
+    }
+
+
+    //first selector cycle time not before given one
+    private long cycleTime(long time){
+        if (cyclePeriod <= 1 || time == SelectorWakeup.NEVER) return time;
+        return (time + cyclePeriod - 1) / cyclePeriod * cyclePeriod;
+    }
+
+
+    //exponentially distributed gap between Poisson arrivals in millis
+    private double nextArrivalGap(Random random){
+        return -Math.log(1 - random.nextDouble()) * 1000 / arrivalsPerSecond;
+    }
+
+
+    /**
+     * Wait time and throughput of one simulation run.
+     */
+    static class Report {
+        final String name;
+        final long simulatedTime;
+        long realTime;
+        int arrivals;
+        long matchCount;
+        //sum over matches of rank difference between match players
+        long rankSpreadSum;
+        private int waitCount;
+        private long[] waits = new long[1024];
+        private boolean sorted;
+
+        Report(String name, long simulatedTime) {
+            this.name = name;
+            this.simulatedTime = simulatedTime;
+        }
+
+        private void addWait(long wait){
+            if (waitCount == waits.length) waits = Arrays.copyOf(waits, waitCount * 2);
+            waits[waitCount++] = wait;
+            sorted = false;
+        }
+
+        int matchedPlayers(){
+            return waitCount;
+        }
+
+        /**
+         * @param quantile from 0 to 1
+         * @return wait time in millis of matched players at quantile
+         */
+        long waitQuantile(double quantile){
+            if (waitCount == 0) return 0;
+            if (!sorted){
+                Arrays.sort(waits, 0, waitCount);
+                sorted = true;
+            }
+            return waits[Math.min(waitCount - 1, (int) (quantile * waitCount))];
+        }
+
+        double meanWait(){
+            long sum = 0;
+            for (int i = 0; i < waitCount; i++) sum += waits[i];
+            return waitCount == 0 ? 0 : (double) sum / waitCount;
+        }
+
+        @Override
+        public String toString() {
+            double minutes = simulatedTime / 60000.0;
+            return String.format(Locale.ROOT,
+                    "%s: %d arrivals, %d matches (%.1f/min), %d players matched, %d still waiting%n" +
+                    "  wait ms: mean %.0f  p50 %d  p90 %d  p99 %d  max %d, mean match rank spread %.2f%n" +
+                    "  simulated %.1f min in %.2f s, %.0fx faster than real time",
+                    name, arrivals, matchCount, matchCount / minutes, matchedPlayers(), arrivals - matchedPlayers(),
+                    meanWait(), waitQuantile(0.5), waitQuantile(0.9), waitQuantile(0.99), waitQuantile(1),
+                    matchCount == 0 ? 0 : (double) rankSpreadSum / matchCount,
+                    minutes, realTime / 1e9, simulatedTime * 1e6 / realTime);
+        }
+    }
+
+
+    public static void main(String[] args) {
+        double arrivalsPerSecond = args.length > 0 ? Double.parseDouble(args[0]) : 20;
+        long minutes = args.length > 1 ? Long.parseLong(args[1]) : 60;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        long cyclePeriod = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+        MatchSimulation simulation = new MatchSimulation(seed, arrivalsPerSecond, minutes * 60000, RankDistribution.skewed(MIN_RANK, MAX_RANK)).cyclePeriod(cyclePeriod);
+        //same rank selection policies, deadline one takes players first after one rank tolerance step of two steps max wait
+        for (MatchMaker.SelectionPolicy policy : MatchMaker.SelectionPolicy.values()){
+            System.out.println(simulation.run("SimplifiedMatchMaker " + policy,
+                    (settings, d) -> new SimplifiedMatchMaker(policySettings(settings, policy), d)));
+        }
+        for (MatchMaker.SelectionPolicy policy : MatchMaker.SelectionPolicy.values()){
+            System.out.println(simulation.run("NotExactlySimplifiedMatchMaker " + policy,
+                    (settings, d) -> new NotExactlySimplifiedMatchMaker(MATCH_PLAYERS_COUNT, MIN_RANK, MAX_RANK, RANK_INCREASE_TIMEOUT, policySettings(settings, policy), d)));
+        }
+        System.out.println(simulation.run("NotExactlySimplifiedMatchMaker packing",
+                (settings, d) -> new NotExactlySimplifiedMatchMaker(MATCH_PLAYERS_COUNT, MIN_RANK, MAX_RANK, RANK_INCREASE_TIMEOUT, settings.packingBudget(PACKING_BUDGET), d)));
+        System.out.println(simulation.run("RankSweepMatchMaker",
+                (settings, d) -> new RankSweepMatchMaker(MATCH_PLAYERS_COUNT, MIN_RANK, MAX_RANK, RANK_INCREASE_TIMEOUT, 1, settings, d)));
+    }
+
+
+    private static MatchMakerSettings policySettings(MatchMakerSettings settings, MatchMaker.SelectionPolicy policy){
+        return settings.selectionPolicy(policy).maxWait(RANK_INCREASE_TIMEOUT * 2);
+    }
+
+}
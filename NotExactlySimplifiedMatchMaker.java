@@ -1,9 +1,10 @@
 package alternativa.test.task1;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedDeque;
 
-class NotExactlySimplifiedMatchMaker implements MatchMaker{
+class NotExactlySimplifiedMatchMaker implements SteppableMatchMaker {
 
     private final int matchPlayerCount;
     private final int minRank;
@@ -11,208 +12,464 @@ class NotExactlySimplifiedMatchMaker implements MatchMaker{
     private final int rankIncreaseTimeout;
 
 
-    private final Deque<WaitingPlayer>[] waitingPlayers;
-    private final OnMatchCreatedListener matchListener;
+    //rank queues are owned by match selector thread, registrations come to them through ring
+    //queue is created on first player of its rank, so empty ranks of wide rank scale cost nothing
+    private final RankQueue[] waitingPlayers;
+    //ranks which queues changed since previous cycle, only they may have enough players for same rank match
+    private final boolean[] touched;
+    private int[] touchedRanks = new int[16];
+    private int touchedCount;
+    private final RegistrationRing registrations = new RegistrationRing();
+    //uid to rank queue slot of every waiting player, owned by match selector thread too
+    private final UidIndex uidIndex = new UidIndex();
+    private final RankQueue.MoveListener reindex = (uid, newHandle) -> uidIndex.put(uid, UidIndex.slot(UidIndex.rankIndex(uidIndex.get(uid)), newHandle));
+    //players waited enough to be matched with other ranks and times of next tolerance steps, kept across cycles
+    private final HardCaseGraph hardCases;
+    private final ToleranceSchedule toleranceSteps = new ToleranceSchedule();
+    private final MatchDispatcher matchDispatcher;
+    private final MatchMakerMetrics metrics;
+    private final DuplicatePolicy duplicatePolicy;
+    private final SelectionPolicy selectionPolicy;
+    //wait time players are taken first after by deadline policy, max wait less its lead
+    private final long deadlineWait;
+    private final long packingBudget;
+    private final MatchJournal journal;
+    private final MatchClock clock;
+    //players which tolerance reaches ranks of wider range go to hand off listener
+    private final OnPlayerHandOffListener handOffListener;
+    private final int handOffMinRank;
+    private final int handOffMaxRank;
+    //registrations of whole hand off range are taken, ranks out of own range are handed off at once
+    private final int takenMinRank;
+    private final int takenMaxRank;
+    private final OnPlayerReleasedListener releaseListener;
+    //players are handed off when their tolerance covers whole own range and reaches past it,
+    //so every window of own range they fit is searched before, tolerance steps are tracked till then
+    private final int handOffTolerance;
+    private final int toleranceLimit;
+    private final SelectorWakeup selectorWakeup;
     private MatchSelectorThread selectorThread;
 
     /**
      * @param matchCreatedListener listener to run after each match creation
      */
     NotExactlySimplifiedMatchMaker(int matchPlayerCount, int matchPlayerMinRank, int matchPlayerMaxRank, int rankIncreaseTimeout, OnMatchCreatedListener matchCreatedListener) {
+        this(matchPlayerCount, matchPlayerMinRank, matchPlayerMaxRank, rankIncreaseTimeout, new MatchDispatcher(matchCreatedListener));
+    }
+
+    /**
+     * @param matchDispatcher match creation stage to pass selected matches to
+     */
+    NotExactlySimplifiedMatchMaker(int matchPlayerCount, int matchPlayerMinRank, int matchPlayerMaxRank, int rankIncreaseTimeout, MatchDispatcher matchDispatcher) {
+        this(matchPlayerCount, matchPlayerMinRank, matchPlayerMaxRank, rankIncreaseTimeout, new MatchMakerSettings(), matchDispatcher);
+    }
+
+    /**
+     * @param settings optional tuning
+     * @param matchDispatcher match creation stage to pass selected matches to
+     */
+    NotExactlySimplifiedMatchMaker(int matchPlayerCount, int matchPlayerMinRank, int matchPlayerMaxRank, int rankIncreaseTimeout, MatchMakerSettings settings, MatchDispatcher matchDispatcher) {
         this.matchPlayerCount = matchPlayerCount;
         this.minRank = matchPlayerMinRank;
         this.maxRank = matchPlayerMaxRank;
         this.rankIncreaseTimeout = rankIncreaseTimeout;
-        this.matchListener = matchCreatedListener;
-
-        //create different rank deque for all ranks
-        waitingPlayers = new Deque[matchPlayerMaxRank - matchPlayerMinRank + 1];
-        for (int i = 0; i < waitingPlayers.length; i++){
-            waitingPlayers[i] = new ConcurrentLinkedDeque<>();
+        this.matchDispatcher = matchDispatcher;
+        this.metrics = new MatchMakerMetrics(matchPlayerMinRank, matchPlayerMaxRank, matchDispatcher);
+        metrics.registrationQueue(registrations);
+        this.duplicatePolicy = settings.duplicatePolicy;
+        this.selectionPolicy = settings.selectionPolicy;
+        this.deadlineWait = settings.maxWait - settings.deadlineLead;
+        this.packingBudget = settings.packingBudget;
+        this.journal = settings.journal;
+        this.clock = settings.clock;
+        this.handOffListener = settings.handOffListener;
+        this.handOffMinRank = settings.handOffMinRank;
+        this.handOffMaxRank = settings.handOffMaxRank;
+        this.takenMinRank = handOffListener == null ? minRank : handOffMinRank;
+        this.takenMaxRank = handOffListener == null ? maxRank : handOffMaxRank;
+        this.releaseListener = settings.releaseListener;
+        this.handOffTolerance = handOffListener == null || (minRank == handOffMinRank && maxRank == handOffMaxRank) ? Integer.MAX_VALUE : maxRank - minRank + 1;
+        this.toleranceLimit = handOffTolerance == Integer.MAX_VALUE ? maxRank - minRank : handOffTolerance;
+        this.selectorWakeup = new SelectorWakeup(clock);
+        this.hardCases = new HardCaseGraph(matchPlayerCount, minRank, maxRank);
+        if (settings.searchPool != null) hardCases.parallelSearch(settings.searchPool, settings.parallelSearchPlayers);
+
+        waitingPlayers = new RankQueue[matchPlayerMaxRank - matchPlayerMinRank + 1];
+        touched = new boolean[waitingPlayers.length];
+
+        //players waiting before restart get back to queues with their enter times
+        if (journal != null){
+            selectorThread = new MatchSelectorThread();
+            try {
+                MatchSelectorThread recovery = selectorThread;
+                //ranks out of range are left by match maker of other configuration
+                journal.recover((uid, rank, enterTime) -> {
+                    if (rank >= minRank && rank <= maxRank) recovery.restore(uid, rank, enterTime);
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
     }
 
 
     public void startMatchMaking(){
-        if (selectorThread != null) selectorThread.shutdown();
+        stopMatchMaking();
         selectorThread = new MatchSelectorThread();
         selectorThread.start();
     }
 
 
     public void stopMatchMaking(){
-        if (selectorThread != null) selectorThread.shutdown();
+        if (selectorThread == null) return;
+        selectorThread.shutdown();
+        SelectorWakeup.awaitStopped(selectorThread);
+    }
+
+
+    public long selectMatches(){
+        if (selectorThread == null) selectorThread = new MatchSelectorThread();
+        return selectorThread.lookOver();
+    }
+
+
+    public MatchMakerMetrics metrics(){
+        return metrics;
     }
 
 
     public void registerPlayer(int uid, int rank){
-        if (rank < minRank || rank > maxRank){
+        registerPlayer(uid, rank, clock.currentTimeMillis());
+    }
+
+
+    public void registerPlayer(int uid, int rank, long enterTime){
+        if (rank < takenMinRank || rank > takenMaxRank){
             throw new UnsupportedOperationException();
         }
-        Deque<WaitingPlayer> d = waitingPlayers[rank- minRank];
-        synchronized (d){
-            d.add(new WaitingPlayer(uid,rank, System.currentTimeMillis()));
-        }
+        registrations.put(uid, rank, enterTime);
+        selectorWakeup.signal();
     }
 
 
-    private void createMatch(WaitingPlayer... players){
-        //emulate match creation delay
-        try {
-            Thread.sleep(300);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    public void unregisterPlayer(int uid){
+        registrations.put(uid, RegistrationRing.UNREGISTER, clock.currentTimeMillis());
+        unregistered();
+    }
+
+
+    private void unregistered(){
+        //unregistration is applied before any match selection, wakeup is only needed to pass it on to listener player was handed off to
+        if (handOffListener != null) selectorWakeup.signal();
+    }
 
-        if (matchListener != null) matchListener.onMatchCreated(players);
+
+    public boolean offerPlayer(int uid, int rank){
+        if (rank < takenMinRank || rank > takenMaxRank){
+            throw new UnsupportedOperationException();
+        }
+        if (!registrations.offer(uid, rank, clock.currentTimeMillis())) return false;
+        selectorWakeup.signal();
+        return true;
     }
 
 
-    private boolean playersCompat(WaitingPlayer p1, WaitingPlayer p2, long time){
-        if (p1 == p2) return true;
-        if (p1.rank == p2.rank) return true;
-        return (Math.abs(p1.rank - p2.rank)<=(time-p1.enterTime)/ rankIncreaseTimeout
-                && Math.abs(p1.rank - p2.rank)<=(time-p2.enterTime)/ rankIncreaseTimeout);
+    public boolean offerUnregistration(int uid){
+        if (!registrations.offer(uid, RegistrationRing.UNREGISTER, clock.currentTimeMillis())) return false;
+        unregistered();
+        return true;
     }
 
 
     private class MatchSelectorThread extends Thread{
         private volatile boolean run = true;
+
+        //slots of packed matches or matches found in parallel
+        private int[] packed = new int[0];
+
+        private final RegistrationRing.Consumer enqueue = this::applyRegistration;
+
         @Override
         public void run() {
             setName("Match selector");
 
             while (run){
-                //simple cases processing (i.e. create matches with same rank)
-                //not matched players added to this list to process hard cases next (different ranks)
-                List<WaitingPlayer> playersLeft = new LinkedList<>();
-
-                long now = System.currentTimeMillis();
-
-                for (Deque<WaitingPlayer> rankDeque : waitingPlayers) {
-                    LinkedList<WaitingPlayer> selectedPlayers = new LinkedList<>();
-                    synchronized (rankDeque) {
-                        while (rankDeque.size() >= matchPlayerCount) {
-                            for (int i = 0; i < matchPlayerCount; i++){
-                                //only select players and release sync lock asap
-                                selectedPlayers.add(rankDeque.pollLast());
-                            }
-                        }
+                selectorWakeup.await(lookOver());
+            }
+        }
 
-                        //only players waited enough added to hard case processing
-                        for (WaitingPlayer p : rankDeque){
-                            if (now - p.enterTime >= rankIncreaseTimeout) playersLeft.add(p);
-                        }
 
-                    }
+        /**
+         * One selector cycle: takes new registrations and forms all possible matches.
+         * @return time to wake up at if nothing happens
+         */
+        long lookOver(){
+            long startTime = System.nanoTime();
+            try {
+                return lookOverQueues();
+            } finally {
+                metrics.recordCycleTime(System.nanoTime() - startTime);
+            }
+        }
 
-                    //create match in separate thread to avoid match creation delay in match selector thread
-                    while (selectedPlayers.size() >= matchPlayerCount) {
-                        WaitingPlayer[] matchMembers = new WaitingPlayer[matchPlayerCount];
-                        for (int i = 0; i < matchPlayerCount; i++){
-                            matchMembers[i] = selectedPlayers.remove();
-                        }
-                        new Thread(() -> createMatch(matchMembers)).start();
-                    }
 
+        private long lookOverQueues(){
+            //take registrations made since previous cycle
+            registrations.drain(enqueue, registrations.capacity());
+
+            long now = clock.currentTimeMillis();
+
+            //simple cases processing (i.e. create matches with same rank)
+            //queues not changed since previous cycle have less players than match needs, so only changed ones are looked over
+            Arrays.sort(touchedRanks, 0, touchedCount);
+            for (int t = 0; t < touchedCount; t++) {
+                int r = touchedRanks[t];
+                touched[r] = false;
+                RankQueue rankQueue = waitingPlayers[r];
+                int rank = minRank + r;
+                //drop tombstones left by hard cases matches while no handles are held
+                if (rankQueue.removedCount() > rankQueue.size()) rankQueue.compact(reindex);
+
+                while (rankQueue.size() >= matchPlayerCount) {
+                    SelectedMatch match = matchDispatcher.acquireMatch(matchPlayerCount);
+                    for (int i = 0; i < matchPlayerCount; i++){
+                        long h = nextSelected(rankQueue, now);
+                        int uid = rankQueue.uid(h);
+                        match.set(i, uid, rank, rankQueue.enterTime(h));
+                        rankQueue.remove(h);
+                        uidIndex.remove(uid);
+                        hardCases.remove(uid);
+                    }
+                    dispatch(match, now);
                 }
-                //simple cases done. no more than matchPlayerCount*rank count left in all rank queues, = 210 players for task case
+                metrics.queueDepth(r, rankQueue.size());
+            }
+            touchedCount = 0;
+            //simple cases done. no more than matchPlayerCount*rank count left in all rank queues, = 210 players for task case
+
+            //players which tolerance grew since previous cycle, players waited enough join hard cases here
+            while (toleranceSteps.peekTime() <= now){
+                int uid = toleranceSteps.peekUid();
+                toleranceSteps.poll();
+                updateTolerance(uid, now);
+            }
 
 
-                if (playersLeft.size() < matchPlayerCount) continue;
+            //work around hard cases (i.e. players with different ranks)
+            //graph is kept between cycles, only matches with players changed since previous cycle are searched
+            long hardCaseStartTime = System.nanoTime();
+            if (packed.length < hardCases.size()) packed = new int[hardCases.size() * 2];
+            if (packingBudget > 0){
+                //all hard cases are packed at once, so different grouping may match more of them
+                int count = hardCases.packMatches(packed, now, hardCaseStartTime + packingBudget);
+                for (int m = 0; m < count; m++) dispatchHardCase(packed, m * matchPlayerCount, now);
+            }else{
+                int count;
+                while ((count = hardCases.nextMatches(packed)) > 0){
+                    for (int m = 0; m < count; m++) dispatchHardCase(packed, m * matchPlayerCount, now);
+                }
+            }
+            metrics.recordHardCaseTime(System.nanoTime() - hardCaseStartTime);
+
+            if (journal != null && journal.snapshotDue(now)) snapshot(now);
 
+            //selector sleeps till next registration or next rank tolerance step of some waiting player
+            while (!toleranceSteps.isEmpty() && !uidIndex.contains(toleranceSteps.peekUid())) toleranceSteps.poll();
+            return toleranceSteps.peekTime();
+        }
 
-                //work around hard cases (i.e. players with different ranks)
-                //sorting to make better wait times
-                playersLeft.sort(byWaitTimeReverse);
 
-                //normally do look over only once
-                boolean doLookOver = true;
-                while (doLookOver){
-                    doLookOver = false;
+        /**
+         * Takes hard cases match players out of queues and graph and passes match on.
+         * @param slots graph slots of match players starting from offset
+         */
+        private void dispatchHardCase(int[] slots, int offset, long now){
+            SelectedMatch match = matchDispatcher.acquireMatch(matchPlayerCount);
+            for (int i = 0; i < matchPlayerCount; i++){
+                int uid = hardCases.uid(slots[offset + i]);
+                long slot = uidIndex.remove(uid);
+                RankQueue rankQueue = waitingPlayers[UidIndex.rankIndex(slot)];
+                long h = UidIndex.handle(slot);
+                match.set(i, uid, hardCases.rank(slots[offset + i]), rankQueue.enterTime(h));
+                rankQueue.remove(h);
+                metrics.queueDepth(UidIndex.rankIndex(slot), rankQueue.size());
+                //tombstone is dropped by next cycle
+                touch(UidIndex.rankIndex(slot));
+            }
+            //graph slots stay valid until all match players are taken
+            for (int uid : match.uids) hardCases.remove(uid);
+            dispatch(match, now);
+        }
 
-                    //calc compatibility sets
-                    int size = playersLeft.size();
-                    Set<Integer>[] compatSets = new Set[size];
 
-                    for (int i = 0; i < size; i++) compatSets[i] = new LinkedHashSet<>();
+        private void dispatch(SelectedMatch match, long now){
+            if (releaseListener != null){
+                for (int uid : match.uids) releaseListener.onPlayerReleased(uid);
+            }
+            metrics.recordMatch(match, now);
+            if (journal != null) journal.matched(match, now);
+            //match creation delay is handled by dispatcher, not in match selector thread
+            matchDispatcher.dispatch(match);
+        }
 
-                    Set<Integer> suspects = new LinkedHashSet<>();
 
-                    for (int i = 0; i < size; i++){
-                        for ( int j = i; j < size; j++){
-                            if (playersCompat(playersLeft.get(i), playersLeft.get(j), now)){
-                                compatSets[i].add(j);
-                                compatSets[j].add(i);
-                            }
+        private void snapshot(long now){
+            try {
+                journal.snapshot(consumer -> {
+                    for (int r = 0; r < waitingPlayers.length; r++){
+                        RankQueue rankQueue = waitingPlayers[r];
+                        if (rankQueue == null) continue;
+                        for (long h = rankQueue.firstHandle(); h != RankQueue.NO_HANDLE; h = rankQueue.nextHandle(h)){
+                            consumer.onRegistration(rankQueue.uid(h), minRank + r, rankQueue.enterTime(h));
                         }
-                        if (compatSets[i].size() >= matchPlayerCount) suspects.add(i);
                     }
-
-                    //some logic, hard to make short explanation
-                    Set<Integer> found = new LinkedHashSet<>();
-                    found = find(suspects, compatSets, found);
+                }, now);
+            } catch (IOException e) {
+                //journal keeps growing till next snapshot succeeds
+                e.printStackTrace();
+            }
+        }
 
 
-                    //create match and do look over one more time if enough players found
-                    if (found != null && found.size() >= matchPlayerCount) {
+        /**
+         * @return handle of player to take to same rank match by selection policy
+         */
+        private long nextSelected(RankQueue rankQueue, long now){
+            switch (selectionPolicy){
+                case OLDEST_FIRST:
+                    return rankQueue.firstHandle();
+                case DEADLINE:
+                    //queue is ordered by registration, so players closest to max wait are at its head
+                    long first = rankQueue.firstHandle();
+                    return now - rankQueue.enterTime(first) >= deadlineWait ? first : rankQueue.lastHandle();
+                default:
+                    return rankQueue.lastHandle();
+            }
+        }
 
-                        List<WaitingPlayer> matchMembers = new LinkedList<>();
-                        found.stream().limit(matchPlayerCount).forEach(integer -> matchMembers.add(playersLeft.get(integer)));
 
-                        for (WaitingPlayer player : matchMembers) {
-                            playersLeft.remove(player);
-                            waitingPlayers[player.rank - 1].remove(player);
-                        }
+        private void applyRegistration(int uid, int rank, long enterTime){
+            if (handOffListener != null){
+                //player waits in listener, so he is registered or unregistered there after his hand off
+                if (handOffListener.isHandedOff(uid)){
+                    handOffListener.onPlayerHandOff(uid, rank, enterTime);
+                    return;
+                }
+                if (rank != RegistrationRing.UNREGISTER && (rank < minRank || rank > maxRank)){
+                    handOffRegistration(uid, rank, enterTime);
+                    return;
+                }
+            }
+            if (!restore(uid, rank, enterTime) || journal == null) return;
+            if (rank == RegistrationRing.UNREGISTER){
+                journal.removed(uid, enterTime);
+            }else{
+                journal.registered(uid, rank, enterTime);
+            }
+        }
 
-                        new Thread(() -> createMatch(matchMembers.toArray(new WaitingPlayer[matchPlayerCount]))).start();
 
-                        //do it one more time if some matched players found
-                        //and break all look over cycles, they has no sense now because compatibility sets changed
-                        doLookOver = true;
-                    }
+        /**
+         * Registration of rank out of own range, player leaves own queues like on unregistration
+         * unless his registration there is kept by duplicate policy.
+         */
+        private void handOffRegistration(int uid, int rank, long enterTime){
+            if (uidIndex.contains(uid)){
+                if (duplicatePolicy == DuplicatePolicy.KEEP_FIRST){
+                    release(uid);
+                    return;
                 }
+                restore(uid, RegistrationRing.UNREGISTER, enterTime);
+                if (journal != null) journal.removed(uid, enterTime);
             }
+            handOffListener.onPlayerHandOff(uid, rank, enterTime);
         }
 
-        private Set<Integer> find(Set<Integer> suspects, Set<Integer>[] compatSets, Set<Integer> found) {
-            for (Integer i : suspects) {
-                if (found.contains(i)) continue;
 
-                Set<Integer> s = compatSets[i];
+        /**
+         * Applies registration or unregistration to queues without journaling it.
+         * @return false if nothing changed
+         */
+        boolean restore(int uid, int rank, long enterTime){
+            long slot = uidIndex.get(uid);
+            if (slot != UidIndex.NO_SLOT){
+                if (rank != RegistrationRing.UNREGISTER && duplicatePolicy == DuplicatePolicy.KEEP_FIRST){
+                    release(uid);
+                    return false;
+                }
+                waitingPlayers[UidIndex.rankIndex(slot)].remove(UidIndex.handle(slot));
+                touch(UidIndex.rankIndex(slot));
+                uidIndex.remove(uid);
+                hardCases.remove(uid);
+                release(uid);
+            }
+            if (rank == RegistrationRing.UNREGISTER) return slot != UidIndex.NO_SLOT;
+
+            int rankIndex = rank - minRank;
+            if (waitingPlayers[rankIndex] == null) waitingPlayers[rankIndex] = new RankQueue();
+            uidIndex.put(uid, UidIndex.slot(rankIndex, waitingPlayers[rankIndex].add(uid, enterTime)));
+            touch(rankIndex);
+            //player may be matched with other ranks after first tolerance step
+            toleranceSteps.add(enterTime + rankIncreaseTimeout, uid);
+            return true;
+        }
+
 
-                Set<Integer> intersection = new LinkedHashSet<>(suspects);
-                intersection.retainAll(s);
+        private void release(int uid){
+            if (releaseListener != null) releaseListener.onPlayerReleased(uid);
+        }
 
 
-                if (intersection.size() < matchPlayerCount) continue;
+        private void touch(int rankIndex){
+            if (touched[rankIndex]) return;
+            touched[rankIndex] = true;
+            if (touchedCount == touchedRanks.length) touchedRanks = Arrays.copyOf(touchedRanks, touchedCount * 2);
+            touchedRanks[touchedCount++] = rankIndex;
+        }
 
-                Set<Integer> newFound = new LinkedHashSet<>(found);
-                newFound.add(i);
-                if (newFound.size() >= matchPlayerCount){
-                    return newFound;
-                }
 
-                Set<Integer> result = find(intersection, compatSets, newFound);
-                if (result != null && result.size() >= matchPlayerCount) return result;
+        /**
+         * Puts waiting player with his current tolerance to hard cases and schedules his next tolerance step.
+         */
+        private void updateTolerance(int uid, long now){
+            long slot = uidIndex.get(uid);
+            //player is matched or unregistered already
+            if (slot == UidIndex.NO_SLOT) return;
+            int rankIndex = UidIndex.rankIndex(slot);
+            long enterTime = waitingPlayers[rankIndex].enterTime(UidIndex.handle(slot));
+
+            int waited = (int) Math.min((now - enterTime) / rankIncreaseTimeout, toleranceLimit);
+            //player was looked over with every player of own range at previous step
+            if (waited >= handOffTolerance){
+                handOff(uid, slot, enterTime, now);
+                return;
             }
-            return null;
-        }
+            int tolerance = Math.min(waited, maxRank - minRank);
+            //entry left by previous registration of player or duplicate entry, tolerance did not change
+            if (tolerance == 0 || !hardCases.put(uid, minRank + rankIndex, enterTime, tolerance)) return;
 
-        void shutdown(){
-            run = false;
+            long nextStep = SelectorWakeup.nextToleranceStep(enterTime, now, rankIncreaseTimeout, toleranceLimit);
+            if (nextStep != SelectorWakeup.NEVER) toleranceSteps.add(nextStep, uid);
         }
 
-        final Comparator<WaitingPlayer> byWaitTimeReverse = (o1, o2) -> {
-            if (o1.enterTime > o2.enterTime) return 1;
-            if (o1.enterTime < o2.enterTime) return -1;
-            return 0;
-        };
-
-    }
 
+        //removes player like unregistration, he keeps waiting in hand off listener
+        private void handOff(int uid, long slot, long enterTime, long now){
+            int rankIndex = UidIndex.rankIndex(slot);
+            waitingPlayers[rankIndex].remove(UidIndex.handle(slot));
+            touch(rankIndex);
+            uidIndex.remove(uid);
+            hardCases.remove(uid);
+            if (journal != null) journal.removed(uid, now);
+            handOffListener.onPlayerHandOff(uid, minRank + rankIndex, enterTime);
+        }
 
 
+        void shutdown(){
+            run = false;
+            selectorWakeup.signal();
+        }
 
+    }
 
-}
\ No newline at end of file
+}
@@ -7,4 +7,4 @@ class Player{
         this.uid = uid;
         this.rank = rank;
     }
-}
\ No newline at end of file
+}
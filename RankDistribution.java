@@ -0,0 +1,58 @@
+package alternativa.test.task1;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Random players rank generator.
+ */
+class RankDistribution {
+
+    private final int minRank;
+    //cumulative probabilities of ranks, last one is 1
+    private final double[] borders;
+
+
+    private RankDistribution(int minRank, double[] weights) {
+        this.minRank = minRank;
+        this.borders = new double[weights.length];
+        double sum = 0;
+        for (double w : weights) sum += w;
+        double border = 0;
+        for (int i = 0; i < weights.length; i++){
+            border += weights[i] / sum;
+            borders[i] = border;
+        }
+        borders[borders.length - 1] = 1;
+    }
+
+
+    /**
+     * All ranks are equally probable.
+     */
+    static RankDistribution uniform(int minRank, int maxRank){
+        double[] weights = new double[maxRank - minRank + 1];
+        Arrays.fill(weights, 1);
+        return new RankDistribution(minRank, weights);
+    }
+
+
+    /**
+     * Emulates real spreading - min rank is most probable, max rank is least,
+     * probability decreases linearly.
+     */
+    static RankDistribution skewed(int minRank, int maxRank){
+        double[] weights = new double[maxRank - minRank + 1];
+        for (int i = 0; i < weights.length; i++) weights[i] = maxRank - minRank + 1 - i;
+        return new RankDistribution(minRank, weights);
+    }
+
+
+    int nextRank(Random random){
+        int i = Arrays.binarySearch(borders, random.nextDouble());
+        //not found index is encoded as -(insertion point) - 1
+        if (i < 0) i = -i - 1;
+        return minRank + Math.min(i, borders.length - 1);
+    }
+
+}
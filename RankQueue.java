@@ -0,0 +1,223 @@
+package alternativa.test.task1;
+
+/**
+ * Waiting players queue of single rank stored as struct of arrays ring buffer:
+ * uid in int[] and enter time in long[], 12 bytes per player without any objects.
+ * Every added player gets handle which stays valid until player removal or queue compaction,
+ * removal by handle is O(1) and leaves tombstone, tombstones are dropped on compaction.
+ * Queue is ordered by addition, oldest first. Not thread safe.
+ */
+class RankQueue {
+
+    static final long NO_HANDLE = -1;
+
+    private static final long REMOVED = Long.MIN_VALUE;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    interface MoveListener {
+        void onMoved(int uid, long newHandle);
+    }
+
+    private int[] uids;
+    private long[] enterTimes;
+    private int mask;
+
+    //handles are absolute sequence numbers of slots, live entries are in [head, tail)
+    private long head;
+    private long tail;
+    private int removedCount;
+
+
+    RankQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * @param initialCapacity rounded up to power of two
+     */
+    RankQueue(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, initialCapacity) * 2 - 1);
+        uids = new int[capacity];
+        enterTimes = new long[capacity];
+        mask = capacity - 1;
+    }
+
+
+    /**
+     * @return handle of added player
+     */
+    long add(int uid, long enterTime){
+        if (tail - head == uids.length) grow();
+        int slot = (int) tail & mask;
+        uids[slot] = uid;
+        enterTimes[slot] = enterTime;
+        return tail++;
+    }
+
+
+    /**
+     * @return false if handle is not valid or player already removed
+     */
+    boolean remove(long handle){
+        if (!contains(handle)) return false;
+        enterTimes[(int) handle & mask] = REMOVED;
+        removedCount++;
+
+        //tombstones at ends are dropped immediately
+        while (head < tail && enterTimes[(int) head & mask] == REMOVED){
+            head++;
+            removedCount--;
+        }
+        while (tail > head && enterTimes[(int) (tail - 1) & mask] == REMOVED){
+            tail--;
+            removedCount--;
+        }
+        return true;
+    }
+
+
+    boolean contains(long handle){
+        return handle >= head && handle < tail && enterTimes[(int) handle & mask] != REMOVED;
+    }
+
+
+    int size(){
+        return (int) (tail - head) - removedCount;
+    }
+
+
+    boolean isEmpty(){
+        return head == tail;
+    }
+
+
+    int removedCount(){
+        return removedCount;
+    }
+
+
+    int uid(long handle){
+        return uids[(int) handle & mask];
+    }
+
+
+    long enterTime(long handle){
+        return enterTimes[(int) handle & mask];
+    }
+
+
+    /**
+     * @return handle of oldest player or {@link #NO_HANDLE} if queue is empty
+     */
+    long firstHandle(){
+        return head < tail ? head : NO_HANDLE;
+    }
+
+
+    /**
+     * @return handle of newest player or {@link #NO_HANDLE} if queue is empty
+     */
+    long lastHandle(){
+        return head < tail ? tail - 1 : NO_HANDLE;
+    }
+
+
+    /**
+     * @return handle of next player added after one with given handle or {@link #NO_HANDLE}
+     */
+    long nextHandle(long handle){
+        for (long h = Math.max(handle + 1, head); h < tail; h++){
+            if (enterTimes[(int) h & mask] != REMOVED) return h;
+        }
+        return NO_HANDLE;
+    }
+
+
+    /**
+     * @return handle of previous player added before one with given handle or {@link #NO_HANDLE}
+     */
+    long previousHandle(long handle){
+        for (long h = Math.min(handle - 1, tail - 1); h >= head; h--){
+            if (enterTimes[(int) h & mask] != REMOVED) return h;
+        }
+        return NO_HANDLE;
+    }
+
+
+    /**
+     * Drops tombstones moving live players towards queue end, all handles become invalid.
+     * @return true if anything was moved
+     */
+    boolean compact(){
+        return compact(null);
+    }
+
+
+    /**
+     * Drops tombstones moving live players towards queue end.
+     * @param listener gets new handle of every moved player, may be null
+     * @return true if anything was moved
+     */
+    boolean compact(MoveListener listener){
+        if (removedCount == 0) return false;
+        long to = tail;
+        for (long from = tail - 1; from >= head; from--){
+            int fromSlot = (int) from & mask;
+            if (enterTimes[fromSlot] == REMOVED) continue;
+            to--;
+            if (to != from){
+                int toSlot = (int) to & mask;
+                uids[toSlot] = uids[fromSlot];
+                enterTimes[toSlot] = enterTimes[fromSlot];
+                if (listener != null) listener.onMoved(uids[toSlot], to);
+            }
+        }
+        head = to;
+        removedCount = 0;
+        return true;
+    }
+
+
+    /**
+     * Makes target exact copy of this queue, including handles.
+     */
+    void copyTo(RankQueue target){
+        if (target.uids.length != uids.length){
+            target.uids = new int[uids.length];
+            target.enterTimes = new long[uids.length];
+            target.mask = mask;
+        }
+        for (long h = head; h < tail; h++){
+            int slot = (int) h & mask;
+            target.uids[slot] = uids[slot];
+            target.enterTimes[slot] = enterTimes[slot];
+        }
+        target.head = head;
+        target.tail = tail;
+        target.removedCount = removedCount;
+    }
+
+
+    void clear(){
+        head = tail;
+        removedCount = 0;
+    }
+
+
+    //handles stay the same after growth, slot of handle just depends on new mask
+    private void grow(){
+        int capacity = uids.length * 2;
+        int[] newUids = new int[capacity];
+        long[] newEnterTimes = new long[capacity];
+        int newMask = capacity - 1;
+        for (long h = head; h < tail; h++){
+            newUids[(int) h & newMask] = uids[(int) h & mask];
+            newEnterTimes[(int) h & newMask] = enterTimes[(int) h & mask];
+        }
+        uids = newUids;
+        enterTimes = newEnterTimes;
+        mask = newMask;
+    }
+
+}
@@ -0,0 +1,572 @@
+package alternativa.test.task1;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Match maker using the fact that players compatibility is one-dimensional.
+ * Players set is a valid match if there is rank window [lo, hi] containing all of them
+ * and every player tolerance covers distance to both window borders.
+ * So instead of searching cliques selector sweeps rank windows from narrow to wide and counts
+ * eligible players in every window with per-rank tolerance histograms.
+ * Histograms and sweep grow with square of rank count, so rank scale is limited to {@link #MAX_RANK_COUNT} ranks,
+ * wide rating scales are served by NotExactlySimplifiedMatchMaker.
+ *
+ * Rank range may be split into shards, each with own selector thread.
+ * Shard owns all windows with lower border in its ranks, windows crossing upper shard border
+ * are swept with locks of all touched shards taken in ascending order.
+ * Shards agree which of them player waits in through common owners index striped by uid, player re-registered
+ * with rank of another shard may stay in previous shard queue for a while, but is never matched there.
+ * Registrations of the same player to different shards are ordered by enter time.
+ */
+class RankSweepMatchMaker implements SteppableMatchMaker {
+
+    static final int MAX_RANK_COUNT = 256;
+
+    private final int matchPlayerCount;
+    private final int minRank;
+    private final int maxRank;
+    private final int rankIncreaseTimeout;
+
+
+    //rank queues are guarded by lock of owning shard, registrations come to them through shard ring
+    private final RankQueue[] waitingPlayers;
+    private final Shard[] shards;
+    private final Shard[] rankShards;
+    private final MatchDispatcher matchDispatcher;
+    private final MatchMakerMetrics metrics;
+    private final DuplicatePolicy duplicatePolicy;
+    private final MatchClock clock;
+    //uid to enter time and index of shard player waits in, only kept with several shards
+    //striped by uid, so shards draining and claiming different players do not wait for each other
+    private final UidIndex[] owners;
+    private final ReentrantLock[] ownerLocks;
+    //one bit of long per stripe, claiming selector locks stripes of match members in ascending order
+    private static final int OWNER_STRIPES = 64;
+    private static final int OWNER_SHARD_BITS = 16;
+    private static final long OWNER_SHARD_MASK = (1L << OWNER_SHARD_BITS) - 1;
+    //rank value marking that player waits in another shard now and may be dropped from this one
+    private static final int MOVED = RegistrationRing.UNREGISTER + 1;
+
+    /**
+     * @param matchCreatedListener listener to run after each match creation
+     */
+    RankSweepMatchMaker(int matchPlayerCount, int matchPlayerMinRank, int matchPlayerMaxRank, int rankIncreaseTimeout, OnMatchCreatedListener matchCreatedListener) {
+        this(matchPlayerCount, matchPlayerMinRank, matchPlayerMaxRank, rankIncreaseTimeout, new MatchDispatcher(matchCreatedListener));
+    }
+
+    /**
+     * @param matchDispatcher match creation stage to pass selected matches to
+     */
+    RankSweepMatchMaker(int matchPlayerCount, int matchPlayerMinRank, int matchPlayerMaxRank, int rankIncreaseTimeout, MatchDispatcher matchDispatcher) {
+        this(matchPlayerCount, matchPlayerMinRank, matchPlayerMaxRank, rankIncreaseTimeout, 1, matchDispatcher);
+    }
+
+    /**
+     * @param shardCount count of rank range parts with own selector threads
+     * @param matchDispatcher match creation stage to pass selected matches to
+     */
+    RankSweepMatchMaker(int matchPlayerCount, int matchPlayerMinRank, int matchPlayerMaxRank, int rankIncreaseTimeout, int shardCount, MatchDispatcher matchDispatcher) {
+        this(matchPlayerCount, matchPlayerMinRank, matchPlayerMaxRank, rankIncreaseTimeout, shardCount, new MatchMakerSettings(), matchDispatcher);
+    }
+
+    /**
+     * @param shardCount count of rank range parts with own selector threads
+     * @param settings optional tuning, selection policy is not used: matches always take longest waiting eligible players
+     * @param matchDispatcher match creation stage to pass selected matches to
+     */
+    RankSweepMatchMaker(int matchPlayerCount, int matchPlayerMinRank, int matchPlayerMaxRank, int rankIncreaseTimeout, int shardCount, MatchMakerSettings settings, MatchDispatcher matchDispatcher) {
+        this.matchPlayerCount = matchPlayerCount;
+        this.minRank = matchPlayerMinRank;
+        this.maxRank = matchPlayerMaxRank;
+        this.rankIncreaseTimeout = rankIncreaseTimeout;
+        this.matchDispatcher = matchDispatcher;
+        this.metrics = new MatchMakerMetrics(matchPlayerMinRank, matchPlayerMaxRank, matchDispatcher);
+        this.duplicatePolicy = settings.duplicatePolicy;
+        this.clock = settings.clock;
+
+        //create different rank queue for all ranks
+        int rankCount = matchPlayerMaxRank - matchPlayerMinRank + 1;
+        if (rankCount <= 0 || rankCount > MAX_RANK_COUNT) throw new IllegalArgumentException();
+        waitingPlayers = new RankQueue[rankCount];
+        for (int i = 0; i < waitingPlayers.length; i++){
+            waitingPlayers[i] = new RankQueue();
+        }
+
+        //split ranks into shards of equal width
+        if (shardCount <= 0 || shardCount > rankCount || shardCount > OWNER_SHARD_MASK) throw new IllegalArgumentException();
+        shards = new Shard[shardCount];
+        rankShards = new Shard[rankCount];
+        for (int s = 0; s < shardCount; s++){
+            shards[s] = new Shard(s, s * rankCount / shardCount, (s + 1) * rankCount / shardCount - 1);
+            for (int r = shards[s].loIndex; r <= shards[s].hiIndex; r++) rankShards[r] = shards[s];
+            metrics.registrationQueue(shards[s].registrations);
+        }
+        if (shardCount > 1){
+            owners = new UidIndex[OWNER_STRIPES];
+            ownerLocks = new ReentrantLock[OWNER_STRIPES];
+            for (int i = 0; i < OWNER_STRIPES; i++){
+                owners[i] = new UidIndex();
+                ownerLocks[i] = new ReentrantLock();
+            }
+        }else{
+            owners = null;
+            ownerLocks = null;
+        }
+    }
+
+
+    public void startMatchMaking(){
+        stopMatchMaking();
+        for (Shard shard : shards){
+            shard.selectorThread = new MatchSelectorThread(shard);
+            shard.selectorThread.start();
+        }
+    }
+
+
+    public void stopMatchMaking(){
+        for (Shard shard : shards){
+            if (shard.selectorThread != null) shard.selectorThread.shutdown();
+        }
+        //all shards are stopped first, as selector may wait for lock of another shard
+        for (Shard shard : shards){
+            if (shard.selectorThread != null) SelectorWakeup.awaitStopped(shard.selectorThread);
+        }
+    }
+
+
+    public long selectMatches(){
+        for (Shard shard : shards){
+            if (shard.selectorThread == null) shard.selectorThread = new MatchSelectorThread(shard);
+        }
+        //replaced players pending in other shard rings must not be matched by shards looked over first
+        if (shards.length > 1){
+            for (Shard shard : shards) shard.selectorThread.drainRegistrations();
+        }
+
+        long nextWakeTime = SelectorWakeup.NEVER;
+        for (Shard shard : shards){
+            nextWakeTime = Math.min(nextWakeTime, shard.selectorThread.lookOver());
+        }
+        return nextWakeTime;
+    }
+
+
+    public MatchMakerMetrics metrics(){
+        return metrics;
+    }
+
+
+    public void registerPlayer(int uid, int rank){
+        registerPlayer(uid, rank, clock.currentTimeMillis());
+    }
+
+
+    public void registerPlayer(int uid, int rank, long enterTime){
+        if (rank < minRank || rank > maxRank){
+            throw new UnsupportedOperationException();
+        }
+        Shard shard = rankShards[rank - minRank];
+        shard.registrations.put(uid, rank, enterTime);
+        signalRegistration(shard, rank - minRank);
+    }
+
+
+    public boolean offerPlayer(int uid, int rank){
+        if (rank < minRank || rank > maxRank){
+            throw new UnsupportedOperationException();
+        }
+        Shard shard = rankShards[rank - minRank];
+        if (!shard.registrations.offer(uid, rank, clock.currentTimeMillis())) return false;
+        signalRegistration(shard, rank - minRank);
+        return true;
+    }
+
+
+    private void signalRegistration(Shard shard, int rankIndex){
+        shard.selectorWakeup.signal();
+        //lower shards having players able to reach this rank may form cross border match now
+        for (int s = shard.index - 1; s >= 0; s--){
+            if (shards[s].reachIndex >= rankIndex) shards[s].selectorWakeup.signal();
+        }
+    }
+
+
+    public void unregisterPlayer(int uid){
+        releaseOwner(uid);
+        //player rank is unknown here, so every shard drops him if he is there
+        //no wakeup needed, unregistration is applied before any match selection
+        long now = clock.currentTimeMillis();
+        for (Shard shard : shards) shard.registrations.put(uid, RegistrationRing.UNREGISTER, now);
+    }
+
+
+    /**
+     * Unregistration taken by some shards only is repeated to all of them by next call, dropping absent player is no-op.
+     */
+    public boolean offerUnregistration(int uid){
+        releaseOwner(uid);
+        long now = clock.currentTimeMillis();
+        for (Shard shard : shards){
+            if (!shard.registrations.offer(uid, RegistrationRing.UNREGISTER, now)) return false;
+        }
+        return true;
+    }
+
+
+    //player is not owned by any shard from now, so his following registration is taken by any shard
+    private void releaseOwner(int uid){
+        if (owners == null) return;
+        int stripe = ownerStripe(uid);
+        ownerLocks[stripe].lock();
+        try {
+            owners[stripe].remove(uid);
+        } finally {
+            ownerLocks[stripe].unlock();
+        }
+    }
+
+
+    private static int ownerStripe(int uid){
+        return uid & (OWNER_STRIPES - 1);
+    }
+
+
+    private class Shard {
+        final int index;
+        final int loIndex;
+        final int hiIndex;
+        final ReentrantLock lock = new ReentrantLock();
+        final RegistrationRing registrations = new RegistrationRing();
+        final SelectorWakeup selectorWakeup = new SelectorWakeup(clock);
+        //uid to rank queue slot of every waiting player of shard
+        final UidIndex uidIndex = new UidIndex();
+        final RankQueue.MoveListener reindex = (uid, newHandle) -> uidIndex.put(uid, UidIndex.slot(UidIndex.rankIndex(uidIndex.get(uid)), newHandle));
+        //highest rank index some player of this shard may be matched with
+        volatile int reachIndex;
+        MatchSelectorThread selectorThread;
+
+        Shard(int index, int loIndex, int hiIndex) {
+            this.index = index;
+            this.loIndex = loIndex;
+            this.hiIndex = hiIndex;
+            this.reachIndex = hiIndex;
+        }
+    }
+
+
+    private class MatchSelectorThread extends Thread{
+        private volatile boolean run = true;
+
+        private final Shard shard;
+        private final int rankCount = maxRank - minRank + 1;
+        private final int maxWidth = maxRank - minRank;
+
+        //toleranceCounts[r][d] - count of players with rank index r which tolerance is at least d,
+        //only ranks from shard lower border are ever swept by shard
+        private final int[][] toleranceCounts = new int[rankCount][];
+        //next eligible player handle of every rank while selecting match members
+        private final long[] mergeHandles = new long[rankCount];
+        //selected match members before they are taken out of queues
+        private final int[] memberRanks = new int[matchPlayerCount];
+        private final long[] memberHandles = new long[matchPlayerCount];
+        //time spent in this cycle on windows wider than one rank
+        private long hardCaseTime;
+
+        private final RegistrationRing.Consumer enqueue = this::applyRegistration;
+
+        MatchSelectorThread(Shard shard) {
+            this.shard = shard;
+            for (int r = shard.loIndex; r < rankCount; r++) toleranceCounts[r] = new int[maxWidth + 1];
+        }
+
+        @Override
+        public void run() {
+            setName(shards.length == 1 ? "Match selector" : "Match selector " + shard.index);
+
+            while (run){
+                shard.selectorWakeup.await(lookOver());
+            }
+        }
+
+
+        /**
+         * One selector cycle of shard.
+         * @return time to wake up at if nothing happens
+         */
+        long lookOver(){
+            long startTime = System.nanoTime();
+            hardCaseTime = 0;
+            shard.lock.lock();
+            try {
+                return lookOverLocked();
+            } finally {
+                shard.lock.unlock();
+                metrics.recordCycleTime(System.nanoTime() - startTime);
+                metrics.recordHardCaseTime(hardCaseTime);
+            }
+        }
+
+
+        void drainRegistrations(){
+            shard.lock.lock();
+            try {
+                shard.registrations.drain(enqueue, shard.registrations.capacity());
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+
+
+        private long lookOverLocked(){
+            //take registrations made since previous cycle
+            shard.registrations.drain(enqueue, shard.registrations.capacity());
+
+            long now = clock.currentTimeMillis();
+
+            for (int r = shard.loIndex; r <= shard.hiIndex; r++){
+                RankQueue rankQueue = waitingPlayers[r];
+                //drop tombstones while no handles are held
+                if (rankQueue.removedCount() > rankQueue.size()) rankQueue.compact(shard.reindex);
+                countTolerances(r, now);
+            }
+
+            //windows inside shard
+            sweep(shard.hiIndex, now);
+
+            //windows crossing upper shard border, only possible if some own player tolerance reaches it
+            int reachIndex = shard.hiIndex;
+            for (int r = shard.loIndex; r <= shard.hiIndex; r++){
+                reachIndex = Math.max(reachIndex, Math.min(r + maxTolerance(r), rankCount - 1));
+            }
+            shard.reachIndex = reachIndex;
+
+            int lastShard = rankShards[reachIndex].index;
+            for (int s = shard.index + 1; s <= lastShard; s++) shards[s].lock.lock();
+            try {
+                if (reachIndex > shard.hiIndex){
+                    for (int r = shard.hiIndex + 1; r <= reachIndex; r++) countTolerances(r, now);
+                    sweep(reachIndex, now);
+                }
+
+                //selector sleeps till next registration or next rank tolerance step of some player it may match
+                long nextWakeTime = SelectorWakeup.NEVER;
+                for (int r = shard.loIndex; r <= reachIndex; r++){
+                    RankQueue players = waitingPlayers[r];
+                    metrics.queueDepth(r, players.size());
+                    for (long h = players.firstHandle(); h != RankQueue.NO_HANDLE; h = players.nextHandle(h)){
+                        nextWakeTime = Math.min(nextWakeTime, SelectorWakeup.nextToleranceStep(players.enterTime(h), now, rankIncreaseTimeout, maxWidth));
+                    }
+                }
+                return nextWakeTime;
+            } finally {
+                for (int s = lastShard; s > shard.index; s--) shards[s].lock.unlock();
+            }
+        }
+
+
+        private void applyRegistration(int uid, int rank, long enterTime){
+            if (owners != null && !updateOwner(uid, rank, enterTime)) return;
+
+            UidIndex uidIndex = shard.uidIndex;
+            long slot = uidIndex.get(uid);
+            if (slot != UidIndex.NO_SLOT){
+                if (rank >= minRank && duplicatePolicy == DuplicatePolicy.KEEP_FIRST) return;
+                waitingPlayers[UidIndex.rankIndex(slot)].remove(UidIndex.handle(slot));
+                uidIndex.remove(uid);
+            }
+            if (rank == RegistrationRing.UNREGISTER || rank == MOVED) return;
+
+            int rankIndex = rank - minRank;
+            uidIndex.put(uid, UidIndex.slot(rankIndex, waitingPlayers[rankIndex].add(uid, enterTime)));
+        }
+
+
+        /**
+         * Keeps shards agreed on which of them player waits in.
+         * @return false if registration or removal does not concern this shard
+         */
+        private boolean updateOwner(int uid, int rank, long enterTime){
+            int previousShard = -1;
+            int stripe = ownerStripe(uid);
+            UidIndex stripeOwners = owners[stripe];
+            ownerLocks[stripe].lock();
+            try {
+                long owner = stripeOwners.get(uid);
+                boolean own = owner != UidIndex.NO_SLOT && (owner & OWNER_SHARD_MASK) == shard.index;
+                if (rank == RegistrationRing.UNREGISTER){
+                    if (own) stripeOwners.remove(uid);
+                    return true;
+                }
+                //player came back to this shard already, his entry here is actual one
+                if (rank == MOVED) return !own;
+
+                if (owner != UidIndex.NO_SLOT && !own){
+                    //shards drain registrations independently, so registrations of other shard are ordered by enter time
+                    long ownerEnterTime = owner >> OWNER_SHARD_BITS;
+                    boolean keepOwner = duplicatePolicy == DuplicatePolicy.KEEP_FIRST ? ownerEnterTime <= enterTime : ownerEnterTime > enterTime;
+                    if (keepOwner) return false;
+                    previousShard = (int) (owner & OWNER_SHARD_MASK);
+                }
+                stripeOwners.put(uid, enterTime << OWNER_SHARD_BITS | shard.index);
+            } finally {
+                ownerLocks[stripe].unlock();
+            }
+
+            //previous shard entry is never matched already, it is just dropped to free the queue
+            //offer does not wait, as previous shard selector may wait for this shard lock now
+            if (previousShard >= 0) shards[previousShard].registrations.offer(uid, MOVED, enterTime);
+            return true;
+        }
+
+
+        /**
+         * Forms matches in windows with lower border in own shard and upper border up to hiLimit,
+         * narrow windows first, same rank matches are windows of zero width.
+         */
+        private void sweep(int hiLimit, long now){
+            long hardCaseStartTime = 0;
+            for (int width = 0; width <= maxWidth; width++){
+                if (width == 1) hardCaseStartTime = System.nanoTime();
+                for (int lo = shard.loIndex; lo <= shard.hiIndex && lo + width <= hiLimit; lo++){
+                    while (eligibleCount(lo, lo + width) >= matchPlayerCount){
+                        SelectedMatch match = selectMembers(lo, lo + width, now);
+                        for (int r = lo; r <= lo + width; r++) countTolerances(r, now);
+                        //some selected players moved to other shards, they are dropped and window is checked again
+                        if (match == null) continue;
+
+                        metrics.recordMatch(match, now);
+                        //match creation delay is handled by dispatcher, not in match selector thread
+                        matchDispatcher.dispatch(match);
+                    }
+                }
+            }
+            if (hardCaseStartTime != 0) hardCaseTime += System.nanoTime() - hardCaseStartTime;
+        }
+
+
+        private int tolerance(long enterTime, long now){
+            return (int) Math.min((now - enterTime) / rankIncreaseTimeout, maxWidth);
+        }
+
+
+        private void countTolerances(int r, long now){
+            int[] counts = toleranceCounts[r];
+            Arrays.fill(counts, 0);
+            RankQueue players = waitingPlayers[r];
+            for (long h = players.firstHandle(); h != RankQueue.NO_HANDLE; h = players.nextHandle(h)){
+                counts[tolerance(players.enterTime(h), now)]++;
+            }
+            //suffix sums: players with tolerance d also have any tolerance below d
+            for (int d = maxWidth - 1; d >= 0; d--) counts[d] += counts[d + 1];
+        }
+
+
+        private int maxTolerance(int r){
+            int[] counts = toleranceCounts[r];
+            for (int d = maxWidth; d > 0; d--){
+                if (counts[d] > 0) return d;
+            }
+            return 0;
+        }
+
+
+        /**
+         * @return count of players in window [lo, hi] which tolerance reaches both window borders
+         */
+        private int eligibleCount(int lo, int hi){
+            int count = 0;
+            for (int r = lo; r <= hi; r++){
+                count += toleranceCounts[r][Math.max(r - lo, hi - r)];
+            }
+            return count;
+        }
+
+
+        private long nextEligible(int r, long handle, int required, long now){
+            RankQueue players = waitingPlayers[r];
+            long h = handle == RankQueue.NO_HANDLE ? players.firstHandle() : players.nextHandle(handle);
+            while (h != RankQueue.NO_HANDLE && tolerance(players.enterTime(h), now) < required) h = players.nextHandle(h);
+            return h;
+        }
+
+
+        /**
+         * Takes longest waiting eligible players of window [lo, hi] out of waiting queues.
+         * @return null if some of them turned out to wait in another shard, they are dropped then
+         */
+        private SelectedMatch selectMembers(int lo, int hi, long now){
+            for (int r = lo; r <= hi; r++){
+                mergeHandles[r] = nextEligible(r, RankQueue.NO_HANDLE, Math.max(r - lo, hi - r), now);
+            }
+
+            for (int i = 0; i < matchPlayerCount; i++){
+                //merge of eligible players of window ranks by enter time
+                int oldest = -1;
+                for (int r = lo; r <= hi; r++){
+                    if (mergeHandles[r] == RankQueue.NO_HANDLE) continue;
+                    if (oldest < 0 || waitingPlayers[r].enterTime(mergeHandles[r]) < waitingPlayers[oldest].enterTime(mergeHandles[oldest])) oldest = r;
+                }
+
+                memberRanks[i] = oldest;
+                memberHandles[i] = mergeHandles[oldest];
+                mergeHandles[oldest] = nextEligible(oldest, memberHandles[i], Math.max(oldest - lo, hi - oldest), now);
+            }
+
+            if (owners != null && !claimMembers()) return null;
+
+            SelectedMatch match = matchDispatcher.acquireMatch(matchPlayerCount);
+            for (int i = 0; i < matchPlayerCount; i++){
+                RankQueue players = waitingPlayers[memberRanks[i]];
+                long h = memberHandles[i];
+                match.set(i, players.uid(h), minRank + memberRanks[i], players.enterTime(h));
+                players.remove(h);
+                rankShards[memberRanks[i]].uidIndex.remove(match.uids[i]);
+            }
+            return match;
+        }
+
+
+        /**
+         * Takes selected players out of owners if all of them wait in shards of their ranks,
+         * otherwise drops players waiting in other shards from queues.
+         */
+        private boolean claimMembers(){
+            long stripes = 0;
+            for (int i = 0; i < matchPlayerCount; i++){
+                stripes |= 1L << ownerStripe(waitingPlayers[memberRanks[i]].uid(memberHandles[i]));
+            }
+            for (long rest = stripes; rest != 0; rest &= rest - 1) ownerLocks[Long.numberOfTrailingZeros(rest)].lock();
+            try {
+                boolean claimed = true;
+                for (int i = 0; i < matchPlayerCount; i++){
+                    int r = memberRanks[i];
+                    int uid = waitingPlayers[r].uid(memberHandles[i]);
+                    long owner = owners[ownerStripe(uid)].get(uid);
+                    if (owner == UidIndex.NO_SLOT || (owner & OWNER_SHARD_MASK) != rankShards[r].index){
+                        waitingPlayers[r].remove(memberHandles[i]);
+                        rankShards[r].uidIndex.remove(uid);
+                        claimed = false;
+                    }
+                }
+                if (!claimed) return false;
+                for (int i = 0; i < matchPlayerCount; i++){
+                    int uid = waitingPlayers[memberRanks[i]].uid(memberHandles[i]);
+                    owners[ownerStripe(uid)].remove(uid);
+                }
+                return true;
+            } finally {
+                for (long rest = stripes; rest != 0; rest &= rest - 1) ownerLocks[Long.numberOfTrailingZeros(rest)].unlock();
+            }
+        }
+
+
+        void shutdown(){
+            run = false;
+            shard.selectorWakeup.signal();
+        }
+
+    }
+
+}
@@ -0,0 +1,122 @@
+package alternativa.test.task1;
+
+import java.util.Arrays;
+
+/**
+ * Counts of waiting players by rank and rank tolerance, telling in O(ranks^3) without looking at players
+ * whether any match is possible and which players may be in it.
+ *
+ * Players of ranks lo..hi are mutually compatible exactly when every player of rank r among them
+ * has tolerance at least max(r - lo, hi - r), as no other player of window is farther from him.
+ * So match is possible only in rank window having enough such players, player may be matched only if his tolerance
+ * reaches least requirement of his rank over such windows, see {@link #requiredTolerance}.
+ * Windows are searched again only after counts changed.
+ * Counts take O(ranks^2) memory, so for rank scales wider than {@link #MAX_RANKS} nothing is counted
+ * and every player is reported as candidate. Not thread safe.
+ */
+class RankWindowIndex {
+
+    //required tolerance of rank no possible match contains
+    static final int NONE = Integer.MAX_VALUE;
+    static final int MAX_RANKS = 64;
+
+    private final int minRank;
+    private final int matchPlayerCount;
+    //counts[rank index][tolerance], tolerance is limited by rank range
+    private final int[][] counts;
+    //atLeast[rank index][tolerance]: count of players with tolerance at least this
+    private final int[][] atLeast;
+    private final int[] required;
+    private boolean changed;
+    private boolean possible;
+
+
+    RankWindowIndex(int matchPlayerCount, int minRank, int maxRank) {
+        if (maxRank < minRank) throw new IllegalArgumentException();
+        this.minRank = minRank;
+        this.matchPlayerCount = matchPlayerCount;
+        int ranks = maxRank - minRank + 1;
+        if (ranks > MAX_RANKS){
+            counts = null;
+            atLeast = null;
+            required = null;
+            return;
+        }
+        this.counts = new int[ranks][ranks];
+        this.atLeast = new int[ranks][ranks + 1];
+        this.required = new int[ranks];
+    }
+
+
+    void add(int rank, int tolerance){
+        if (counts == null) return;
+        counts[rank - minRank][Math.min(tolerance, counts.length - 1)]++;
+        changed = true;
+    }
+
+
+    void remove(int rank, int tolerance){
+        if (counts == null) return;
+        counts[rank - minRank][Math.min(tolerance, counts.length - 1)]--;
+        changed = true;
+    }
+
+
+    void clear(){
+        if (counts == null) return;
+        for (int[] c : counts) Arrays.fill(c, 0);
+        changed = true;
+    }
+
+
+    /**
+     * @return true if some players counted make match
+     */
+    boolean matchPossible(){
+        if (counts == null) return true;
+        update();
+        return possible;
+    }
+
+
+    /**
+     * @return least tolerance player of rank needs to be in any possible match, {@link #NONE} if none is possible there
+     */
+    int requiredTolerance(int rank){
+        if (counts == null) return 0;
+        update();
+        return required[rank - minRank];
+    }
+
+
+    /**
+     * @return true if player may be in some possible match
+     */
+    boolean candidate(int rank, int tolerance){
+        return tolerance >= requiredTolerance(rank);
+    }
+
+
+    private void update(){
+        if (!changed) return;
+        changed = false;
+        int ranks = counts.length;
+        for (int r = 0; r < ranks; r++){
+            atLeast[r][ranks] = 0;
+            for (int t = ranks - 1; t >= 0; t--) atLeast[r][t] = atLeast[r][t + 1] + counts[r][t];
+        }
+
+        Arrays.fill(required, NONE);
+        possible = false;
+        for (int lo = 0; lo < ranks; lo++){
+            for (int hi = lo; hi < ranks; hi++){
+                int count = 0;
+                for (int r = lo; r <= hi; r++) count += atLeast[r][Math.max(r - lo, hi - r)];
+                if (count < matchPlayerCount) continue;
+                possible = true;
+                for (int r = lo; r <= hi; r++) required[r] = Math.min(required[r], Math.max(r - lo, hi - r));
+            }
+        }
+    }
+
+}
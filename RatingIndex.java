@@ -0,0 +1,171 @@
+package alternativa.test.task1;
+
+import java.util.Arrays;
+
+/**
+ * Entries of (rank, id) ordered by rank and then by id, for range queries "all entries of ranks lo..hi"
+ * costing O(log n + entries found) whatever width of rank scale is.
+ * Stored as two level B-tree over primitive arrays: sorted blocks of packed keys, split when full,
+ * so add and remove cost O(log n + block size) with no objects per entry.
+ *
+ * Entries are walked with cursors like {@link RankQueue} handles: cursor stays valid until next change.
+ * Not thread safe.
+ */
+class RatingIndex {
+
+    static final long NO_CURSOR = -1;
+
+    private static final int BLOCK_SIZE = 256;
+
+    private long[][] blocks = new long[4][];
+    private int[] blockSizes = new int[4];
+    private int blockCount;
+    private int size;
+
+
+    int size(){
+        return size;
+    }
+
+
+    /**
+     * @return false if entry is in index already
+     */
+    boolean add(int rank, int id){
+        long key = key(rank, id);
+        if (blockCount == 0){
+            blocks[0] = new long[BLOCK_SIZE];
+            blockCount = 1;
+        }
+        int b = blockOf(key);
+        int i = Arrays.binarySearch(blocks[b], 0, blockSizes[b], key);
+        if (i >= 0) return false;
+        i = -i - 1;
+        if (blockSizes[b] == BLOCK_SIZE){
+            split(b);
+            if (i > blockSizes[b]){
+                i -= blockSizes[b];
+                b++;
+            }
+        }
+        long[] block = blocks[b];
+        System.arraycopy(block, i, block, i + 1, blockSizes[b] - i);
+        block[i] = key;
+        blockSizes[b]++;
+        size++;
+        return true;
+    }
+
+
+    /**
+     * @return false if there was no such entry
+     */
+    boolean remove(int rank, int id){
+        if (blockCount == 0) return false;
+        long key = key(rank, id);
+        int b = blockOf(key);
+        int i = Arrays.binarySearch(blocks[b], 0, blockSizes[b], key);
+        if (i < 0) return false;
+        long[] block = blocks[b];
+        System.arraycopy(block, i + 1, block, i, blockSizes[b] - i - 1);
+        size--;
+        //last block is kept even if empty
+        if (--blockSizes[b] == 0 && blockCount > 1){
+            System.arraycopy(blocks, b + 1, blocks, b, blockCount - b - 1);
+            System.arraycopy(blockSizes, b + 1, blockSizes, b, blockCount - b - 1);
+            blocks[--blockCount] = null;
+        }
+        return true;
+    }
+
+
+    void clear(){
+        Arrays.fill(blocks, 1, blockCount, null);
+        blockCount = Math.min(blockCount, 1);
+        if (blockCount == 1) blockSizes[0] = 0;
+        size = 0;
+    }
+
+
+    /**
+     * @return cursor of first entry of rank at least given one, {@link #NO_CURSOR} if none
+     */
+    long first(int rank){
+        if (size == 0) return NO_CURSOR;
+        long key = key(rank, 0);
+        int b = blockOf(key);
+        int i = Arrays.binarySearch(blocks[b], 0, blockSizes[b], key);
+        if (i < 0) i = -i - 1;
+        return normalize(b, i);
+    }
+
+
+    /**
+     * @return cursor of entry following given one, {@link #NO_CURSOR} if none
+     */
+    long next(long cursor){
+        return normalize((int) (cursor >>> 32), (int) cursor + 1);
+    }
+
+
+    int rank(long cursor){
+        return (int) (blocks[(int) (cursor >>> 32)][(int) cursor] >> 32);
+    }
+
+
+    int id(long cursor){
+        return (int) blocks[(int) (cursor >>> 32)][(int) cursor];
+    }
+
+
+    //ids are compared unsigned, it does not matter while order is the same for add and remove
+    private static long key(int rank, int id){
+        return (long) rank << 32 | (id & 0xFFFFFFFFL);
+    }
+
+
+    //first block which last key is not less than key, or last block
+    private int blockOf(long key){
+        int lo = 0;
+        int hi = blockCount - 1;
+        while (lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if (blockSizes[mid] == 0 || blocks[mid][blockSizes[mid] - 1] >= key){
+                hi = mid;
+            }else{
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+
+    //moves position past block end to next block
+    private long normalize(int b, int i){
+        while (b < blockCount && i >= blockSizes[b]){
+            b++;
+            i = 0;
+        }
+        return b < blockCount ? (long) b << 32 | i : NO_CURSOR;
+    }
+
+
+    //moves upper half of full block to new block after it
+    private void split(int b){
+        if (blockCount == blocks.length){
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+            blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+        }
+        System.arraycopy(blocks, b + 1, blocks, b + 2, blockCount - b - 1);
+        System.arraycopy(blockSizes, b + 1, blockSizes, b + 2, blockCount - b - 1);
+        blockCount++;
+
+        int half = BLOCK_SIZE / 2;
+        long[] upper = new long[BLOCK_SIZE];
+        System.arraycopy(blocks[b], half, upper, 0, BLOCK_SIZE - half);
+        blocks[b + 1] = upper;
+        blockSizes[b + 1] = BLOCK_SIZE - half;
+        blockSizes[b] = half;
+    }
+
+}
@@ -0,0 +1,111 @@
+package alternativa.test.task1;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load client of {@link MatchServer}: every connection pipelines registrations of new players as fast as server takes them,
+ * one more connection subscribes to matches. Registrations, rejections and received matches per second are printed every second.
+ * Rejected registrations are counted only, not retried.
+ *
+ * Program arguments (all optional): host, port, connections, seconds.
+ */
+public class RegistrationClient {
+
+    private static final int MIN_RANK = 1;
+    private static final int MAX_RANK = 30;
+    //registrations written by single write call
+    private static final int BATCH = 512;
+
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : MatchServer.DEFAULT_PORT;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        long seconds = args.length > 3 ? Long.parseLong(args[3]) : 10;
+        InetSocketAddress address = new InetSocketAddress(host, port);
+
+        AtomicLong registrations = new AtomicLong();
+        AtomicLong matches = new AtomicLong();
+        AtomicLong rejections = new AtomicLong();
+        long endTime = System.currentTimeMillis() + seconds * 1000;
+
+        SocketChannel subscription = SocketChannel.open(address);
+        subscription.write(ByteBuffer.wrap("subscribe\n".getBytes()));
+        startLineCounter(subscription, matches, "Match reader");
+
+        Thread[] writers = new Thread[connections];
+        for (int c = 0; c < connections; c++){
+            int firstUid = c * (Integer.MAX_VALUE / connections);
+            writers[c] = new Thread(() -> {
+                RankDistribution ranks = RankDistribution.skewed(MIN_RANK, MAX_RANK);
+                Random random = new Random(firstUid);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH * 16);
+                int uid = firstUid;
+                try (SocketChannel channel = SocketChannel.open(address)){
+                    //server answers only rejected registrations
+                    startLineCounter(channel, rejections, "Rejection reader");
+                    while (System.currentTimeMillis() < endTime){
+                        buffer.clear();
+                        for (int i = 0; i < BATCH; i++){
+                            buffer.put((byte) '(').put(Integer.toString(uid++).getBytes()).put((byte) ' ')
+                                    .put(Integer.toString(ranks.nextRank(random)).getBytes()).put((byte) ')').put((byte) '\n');
+                        }
+                        buffer.flip();
+                        while (buffer.hasRemaining()) channel.write(buffer);
+                        registrations.addAndGet(BATCH);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "Registration writer " + c);
+            writers[c].start();
+        }
+
+        long previousRegistrations = 0;
+        long previousMatches = 0;
+        long previousRejections = 0;
+        while (System.currentTimeMillis() < endTime){
+            Thread.sleep(1000);
+            long r = registrations.get();
+            long m = matches.get();
+            long j = rejections.get();
+            System.out.println(String.format(Locale.ROOT, "registrations %8d/s  rejected %8d/s  matches %6d/s",
+                    r - previousRegistrations, j - previousRejections, m - previousMatches));
+            previousRegistrations = r;
+            previousMatches = m;
+            previousRejections = j;
+        }
+        for (Thread writer : writers) writer.join();
+        subscription.close();
+    }
+
+
+    //counts lines received by connection in daemon thread
+    private static void startLineCounter(SocketChannel channel, AtomicLong lines, String name){
+        Thread reader = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            try {
+                while (channel.read(buffer) >= 0){
+                    buffer.flip();
+                    long count = 0;
+                    for (int i = buffer.position(); i < buffer.limit(); i++){
+                        if (buffer.get(i) == '\n') count++;
+                    }
+                    lines.addAndGet(count);
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                //connection closed at exit
+            }
+        }, name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+}
@@ -0,0 +1,129 @@
+package alternativa.test.task1;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free multi-producer single-consumer buffer of player registrations.
+ * Registration threads claim ring slots with CAS and never wait for match selector
+ * unless ring is full, selector drains published registrations in batches.
+ * Registration fields are stored in primitive arrays, so no objects are created per registration.
+ */
+class RegistrationRing {
+
+    static final int DEFAULT_CAPACITY = 1 << 16;
+    //rank value marking player unregistration instead of registration
+    static final int UNREGISTER = Integer.MIN_VALUE;
+
+    //claim and consume sequences are kept in one array with padding around them to avoid false sharing
+    private static final int PAD = 16;
+    private static final int CLAIM = PAD;
+    private static final int CONSUME = PAD * 2;
+
+    interface Consumer {
+        void onRegistration(int uid, int rank, long enterTime);
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final int[] uids;
+    private final int[] ranks;
+    private final long[] enterTimes;
+    //sequence of registration published to slot, consumer reads slot only when it matches expected sequence
+    private final AtomicLongArray published;
+    private final AtomicLongArray sequences = new AtomicLongArray(PAD * 3);
+    //System.nanoTime() of last drain start, registrations left in ring were published after it or wait since it
+    private volatile long drainTime = System.nanoTime();
+
+
+    RegistrationRing() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * @param capacity rounded up to power of two
+     */
+    RegistrationRing(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.mask = this.capacity - 1;
+        uids = new int[this.capacity];
+        ranks = new int[this.capacity];
+        enterTimes = new long[this.capacity];
+        published = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) published.set(i, -1);
+    }
+
+
+    /**
+     * Puts registration into ring, safe to call from any thread.
+     * @return false if ring is full
+     */
+    boolean offer(int uid, int rank, long enterTime){
+        long seq;
+        do {
+            seq = sequences.get(CLAIM);
+            if (seq - sequences.get(CONSUME) >= capacity) return false;
+        } while (!sequences.compareAndSet(CLAIM, seq, seq + 1));
+
+        int slot = (int) seq & mask;
+        uids[slot] = uid;
+        ranks[slot] = rank;
+        enterTimes[slot] = enterTime;
+        published.lazySet(slot, seq);
+        return true;
+    }
+
+
+    /**
+     * Puts registration into ring waiting for free slot if ring is full.
+     */
+    void put(int uid, int rank, long enterTime){
+        while (!offer(uid, rank, enterTime)){
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+        }
+    }
+
+
+    /**
+     * Passes published registrations to consumer in order of slots claim, must be called from single thread only.
+     * @param maxCount max count of registrations to drain
+     * @return count of drained registrations
+     */
+    int drain(Consumer consumer, int maxCount){
+        drainTime = System.nanoTime();
+        long seq = sequences.get(CONSUME);
+        int count = 0;
+        while (count < maxCount){
+            int slot = (int) seq & mask;
+            //stops at first not yet published slot, even if later ones are published already
+            if (published.get(slot) != seq) break;
+            consumer.onRegistration(uids[slot], ranks[slot], enterTimes[slot]);
+            seq++;
+            count++;
+        }
+        if (count > 0) sequences.lazySet(CONSUME, seq);
+        return count;
+    }
+
+
+    int size(){
+        return (int) (sequences.get(CLAIM) - sequences.get(CONSUME));
+    }
+
+
+    /**
+     * @return nanos oldest registration in ring waits for consumer at most, 0 if ring is empty
+     */
+    long queueingDelay(){
+        long since = drainTime;
+        return size() > 0 ? System.nanoTime() - since : 0;
+    }
+
+
+    int capacity(){
+        return capacity;
+    }
+
+}
@@ -0,0 +1,46 @@
+package alternativa.test.task1;
+
+/**
+ * Players of match selected by match maker, kept in primitive arrays reused through {@link MatchPool},
+ * so selecting and dispatching match creates no objects.
+ * Match created listeners get fresh {@link Player}s made of it, or its arrays lent for the call only,
+ * see {@link MatchMaker.OnBorrowedMatchCreatedListener}.
+ */
+class SelectedMatch {
+
+    final int[] uids;
+    final int[] ranks;
+    final long[] enterTimes;
+    //time in nanos match is due to be created at, owned by dispatcher
+    long dueTime;
+
+
+    SelectedMatch(int playerCount) {
+        uids = new int[playerCount];
+        ranks = new int[playerCount];
+        enterTimes = new long[playerCount];
+    }
+
+
+    int size(){
+        return uids.length;
+    }
+
+
+    void set(int i, int uid, int rank, long enterTime){
+        uids[i] = uid;
+        ranks[i] = rank;
+        enterTimes[i] = enterTime;
+    }
+
+
+    /**
+     * @return new players of match, listener may keep them
+     */
+    MatchMaker.WaitingPlayer[] toPlayers(){
+        MatchMaker.WaitingPlayer[] players = new MatchMaker.WaitingPlayer[uids.length];
+        for (int i = 0; i < players.length; i++) players[i] = new MatchMaker.WaitingPlayer(uids[i], ranks[i], enterTimes[i]);
+        return players;
+    }
+
+}
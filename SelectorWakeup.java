@@ -0,0 +1,92 @@
+package alternativa.test.task1;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parks match selector thread between events which may lead to new match:
+ * new player registration or next moment some waiting player rank tolerance increases.
+ */
+class SelectorWakeup {
+
+    static final long NEVER = Long.MAX_VALUE;
+
+    private final MatchClock clock;
+    private volatile Thread waiter;
+    private volatile boolean signalled;
+
+
+    SelectorWakeup() {
+        this(MatchClock.SYSTEM);
+    }
+
+
+    /**
+     * @param clock clock wake times are measured by
+     */
+    SelectorWakeup(MatchClock clock) {
+        this.clock = clock;
+    }
+
+
+    /**
+     * Wakes selector up immediately (or makes its next await return at once), safe to call from any thread.
+     */
+    void signal(){
+        //skip unpark if selector is already going to look over queues
+        if (signalled) return;
+        signalled = true;
+        Thread t = waiter;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+
+    /**
+     * Blocks selector thread until signal or until wakeTime comes.
+     * @param wakeTime time in millis to wake up at, {@link #NEVER} to wait for signal only
+     */
+    void await(long wakeTime){
+        waiter = Thread.currentThread();
+        while (!signalled){
+            long delay = wakeTime - clock.currentTimeMillis();
+            if (delay <= 0) break;
+            if (wakeTime == NEVER) {
+                LockSupport.park(this);
+            }else{
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(delay));
+            }
+        }
+        //reset before queues look over, so registrations made during it will wake selector again
+        signalled = false;
+    }
+
+
+    /**
+     * Waits until stopped selector thread finishes its cycle, so selector owned queues are never used by two threads.
+     * Returns at once when called by selector itself, e.g. from match created listener run in selector thread.
+     */
+    static void awaitStopped(Thread selector){
+        if (selector == Thread.currentThread()) return;
+        boolean interrupted = false;
+        while (selector.isAlive()){
+            try {
+                selector.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+
+    /**
+     * @return time in millis when player waiting since enterTime gets next rank tolerance step
+     * or {@link #NEVER} if his tolerance already covers whole rank range
+     */
+    static long nextToleranceStep(long enterTime, long now, int rankIncreaseTimeout, int rankRange){
+        long steps = (now - enterTime) / rankIncreaseTimeout;
+        if (steps >= rankRange) return NEVER;
+        return enterTime + (steps + 1) * rankIncreaseTimeout;
+    }
+
+}
@@ -1,10 +1,9 @@
 package alternativa.test.task1;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedDeque;
 
 
-class SimplifiedMatchMaker implements MatchMaker {
+class SimplifiedMatchMaker implements SteppableMatchMaker {
 
     private final static int MATCH_PLAYERS_COUNT = 8;
     private final static int OTHER_RANKS_ALLOW_TIMEOUT = 5000;
@@ -13,8 +12,20 @@ class SimplifiedMatchMaker implements MatchMaker {
 
 
 
+    //rank deques are owned by match selector thread, registrations come to them through ring
     private final Deque<WaitingPlayer>[] waitingPlayers;
-    private final OnMatchCreatedListener matchListener;
+    private final RegistrationRing registrations = new RegistrationRing();
+    //all waiting players by uid, duplicate registrations are ignored
+    private final Map<Integer, WaitingPlayer> queuedPlayers = new HashMap<>();
+    //hard case players counts by rank and tolerance, owned by match selector thread
+    private final RankWindowIndex windows = new RankWindowIndex(MATCH_PLAYERS_COUNT, MIN_RANK, MAX_RANK);
+    private final MatchDispatcher matchDispatcher;
+    private final MatchMakerMetrics metrics;
+    private final MatchClock clock;
+    private final SelectionPolicy selectionPolicy;
+    //wait time players are taken first after by deadline policy, max wait less its lead
+    private final long deadlineWait;
+    private final SelectorWakeup selectorWakeup;
     private MatchSelectorThread selectorThread;
 
 
@@ -22,45 +33,96 @@ class SimplifiedMatchMaker implements MatchMaker {
      * @param matchCreatedListener listener to run after each match creation
      */
     SimplifiedMatchMaker(OnMatchCreatedListener matchCreatedListener) {
-        this.matchListener = matchCreatedListener;
+        this(new MatchDispatcher(matchCreatedListener));
+    }
+
+
+    /**
+     * @param matchDispatcher match creation stage to pass selected matches to
+     */
+    SimplifiedMatchMaker(MatchDispatcher matchDispatcher) {
+        this(new MatchMakerSettings(), matchDispatcher);
+    }
+
+
+    /**
+     * @param settings optional tuning, duplicate registrations are always ignored here
+     * @param matchDispatcher match creation stage to pass selected matches to
+     */
+    SimplifiedMatchMaker(MatchMakerSettings settings, MatchDispatcher matchDispatcher) {
+        this.matchDispatcher = matchDispatcher;
+        this.metrics = new MatchMakerMetrics(MIN_RANK, MAX_RANK, matchDispatcher);
+        metrics.registrationQueue(registrations);
+        this.clock = settings.clock;
+        this.selectionPolicy = settings.selectionPolicy;
+        this.deadlineWait = settings.maxWait - settings.deadlineLead;
+        this.selectorWakeup = new SelectorWakeup(clock);
 
         //create different rank deque for all ranks
         waitingPlayers = new Deque[MAX_RANK - MIN_RANK + 1];
         for (int i = 0; i < waitingPlayers.length; i++){
-            waitingPlayers[i] = new ConcurrentLinkedDeque<>();
+            waitingPlayers[i] = new ArrayDeque<>();
         }
     }
 
 
     public void startMatchMaking(){
-        if (selectorThread != null) selectorThread.shutdown();
+        stopMatchMaking();
         selectorThread = new MatchSelectorThread();
         selectorThread.start();
     }
 
 
     public void stopMatchMaking(){
-        if (selectorThread != null) selectorThread.shutdown();
+        if (selectorThread == null) return;
+        selectorThread.shutdown();
+        SelectorWakeup.awaitStopped(selectorThread);
+    }
+
+
+    public long selectMatches(){
+        if (selectorThread == null) selectorThread = new MatchSelectorThread();
+        return selectorThread.lookOver();
+    }
+
+
+    public MatchMakerMetrics metrics(){
+        return metrics;
     }
 
 
     public void registerPlayer(int uid, int rank){
-        Deque<WaitingPlayer> d = waitingPlayers[rank-MIN_RANK];
-        synchronized (d){
-            d.add(new WaitingPlayer(uid,rank, System.currentTimeMillis()));
+        registerPlayer(uid, rank, clock.currentTimeMillis());
+    }
+
+
+    public void registerPlayer(int uid, int rank, long enterTime){
+        //bad rank must fail in caller, selector would get stuck on it
+        if (rank < MIN_RANK || rank > MAX_RANK){
+            throw new UnsupportedOperationException();
         }
+        registrations.put(uid, rank, enterTime);
+        selectorWakeup.signal();
     }
 
 
-    private void createMatch(WaitingPlayer... players){
-        //emulate match creation delay
-        try {
-            Thread.sleep(300);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    public void unregisterPlayer(int uid){
+        registrations.put(uid, RegistrationRing.UNREGISTER, clock.currentTimeMillis());
+    }
+
+
+    public boolean offerPlayer(int uid, int rank){
+        if (rank < MIN_RANK || rank > MAX_RANK){
+            throw new UnsupportedOperationException();
         }
+        if (!registrations.offer(uid, rank, clock.currentTimeMillis())) return false;
+        selectorWakeup.signal();
+        return true;
+    }
 
-        if (matchListener != null) matchListener.onMatchCreated(players);
+
+    public boolean offerUnregistration(int uid){
+        return registrations.offer(uid, RegistrationRing.UNREGISTER, clock.currentTimeMillis());
     }
 
 
@@ -71,6 +133,10 @@ class SimplifiedMatchMaker implements MatchMaker {
                 && Math.abs(p1.rank - p2.rank)<=(time-p2.enterTime)/ OTHER_RANKS_ALLOW_TIMEOUT);
     }
 
+    private static int tolerance(WaitingPlayer p, long time){
+        return (int) Math.min((time - p.enterTime) / OTHER_RANKS_ALLOW_TIMEOUT, MAX_RANK - MIN_RANK);
+    }
+
     final static Comparator<WaitingPlayer> byWaitTimeReverse = (o1, o2) -> {
         if (o1.enterTime > o2.enterTime) return 1;
         if (o1.enterTime < o2.enterTime) return -1;
@@ -79,215 +145,255 @@ class SimplifiedMatchMaker implements MatchMaker {
 
     private class MatchSelectorThread extends Thread{
         private volatile boolean run = true;
+
+        private final RegistrationRing.Consumer enqueue = (uid, rank, enterTime) -> {
+            if (rank == RegistrationRing.UNREGISTER){
+                WaitingPlayer p = queuedPlayers.remove(uid);
+                if (p != null) waitingPlayers[p.rank - MIN_RANK].remove(p);
+            }else if (!queuedPlayers.containsKey(uid)){
+                WaitingPlayer p = new WaitingPlayer(uid, rank, enterTime);
+                queuedPlayers.put(uid, p);
+                waitingPlayers[rank - MIN_RANK].add(p);
+            }
+        };
+
         @Override
         public void run() {
             setName("Match selector");
 
             while (run){
-                //simple cases processing (i.e. create matches with same rank)
-                //not matched players added to this list to process hard cases next (different ranks)
-                List<WaitingPlayer> playersLeft = new LinkedList<>();
-
-                long now = System.currentTimeMillis();
-
-                for (Deque<WaitingPlayer> rankDeque : waitingPlayers) {
-                    LinkedList<WaitingPlayer> selectedPlayers = new LinkedList<>();
-                    synchronized (rankDeque) {
-                        while (rankDeque.size() >= MATCH_PLAYERS_COUNT) {
-                            for (int i = 0; i < MATCH_PLAYERS_COUNT; i++){
-                                //only select players and release sync lock asap
-                                selectedPlayers.add(rankDeque.pollLast());
-                            }
-                        }
+                selectorWakeup.await(lookOver());
+            }
+        }
 
-                        //only players waited enough added to hard case processing
-                        for (WaitingPlayer p : rankDeque){
-                            if (now - p.enterTime >= OTHER_RANKS_ALLOW_TIMEOUT) playersLeft.add(p);
-                        }
 
-                    }
+        /**
+         * One selector cycle: takes new registrations and forms all possible matches.
+         * @return time to wake up at if nothing happens
+         */
+        long lookOver(){
+            long startTime = System.nanoTime();
+            try {
+                return lookOverQueues();
+            } finally {
+                metrics.recordCycleTime(System.nanoTime() - startTime);
+            }
+        }
 
-                    //create match in separate thread to avoid match creation delay in match selector thread
-                    while (selectedPlayers.size() >= MATCH_PLAYERS_COUNT) {
-                        WaitingPlayer[] matchMembers = new WaitingPlayer[MATCH_PLAYERS_COUNT];
-                        for (int i = 0; i < MATCH_PLAYERS_COUNT; i++){
-                            matchMembers[i] = selectedPlayers.remove();
-                        }
-                        new Thread(() -> createMatch(matchMembers)).start();
+
+        private long lookOverQueues(){
+            //take registrations made since previous cycle
+            registrations.drain(enqueue, registrations.capacity());
+
+            //simple cases processing (i.e. create matches with same rank)
+            //not matched players added to this list to process hard cases next (different ranks)
+            List<WaitingPlayer> playersLeft = new LinkedList<>();
+
+            long now = clock.currentTimeMillis();
+            //selector sleeps till next registration or next rank tolerance step of some waiting player
+            long nextWakeTime = SelectorWakeup.NEVER;
+
+            for (Deque<WaitingPlayer> rankDeque : waitingPlayers) {
+                LinkedList<WaitingPlayer> selectedPlayers = new LinkedList<>();
+                while (rankDeque.size() >= MATCH_PLAYERS_COUNT) {
+                    for (int i = 0; i < MATCH_PLAYERS_COUNT; i++){
+                        selectedPlayers.add(pollSelected(rankDeque, now));
                     }
+                }
 
+                //only players waited enough added to hard case processing
+                for (WaitingPlayer p : rankDeque){
+                    if (now - p.enterTime >= OTHER_RANKS_ALLOW_TIMEOUT) playersLeft.add(p);
+                    nextWakeTime = Math.min(nextWakeTime, SelectorWakeup.nextToleranceStep(p.enterTime, now, OTHER_RANKS_ALLOW_TIMEOUT, MAX_RANK - MIN_RANK));
                 }
-                //simple cases done. no more than 7*30 = 210 players left in all rank queues
 
+                //match creation delay is handled by dispatcher, not in match selector thread
+                while (selectedPlayers.size() >= MATCH_PLAYERS_COUNT) {
+                    WaitingPlayer[] matchMembers = new WaitingPlayer[MATCH_PLAYERS_COUNT];
+                    for (int i = 0; i < MATCH_PLAYERS_COUNT; i++){
+                        matchMembers[i] = selectedPlayers.remove();
+                        queuedPlayers.remove(matchMembers[i].uid);
+                    }
+                    dispatch(matchMembers, now);
+                }
 
+            }
+            //simple cases done. no more than 7*30 = 210 players left in all rank queues
 
-                //work around hard cases (i.e. players with different ranks)
-                //sorting to make better wait times
-                playersLeft.sort(byWaitTimeReverse);
 
-                //normally do look over only once
-                boolean doLookOver = true;
-                while (doLookOver){
-                    doLookOver = false;
 
-                    //calc compatibility sets
-                    int size = playersLeft.size();
-                    Set<Integer>[] compatSets = new Set[size];
+            //work around hard cases (i.e. players with different ranks)
+            long hardCaseStartTime = System.nanoTime();
+            //sorting to make better wait times
+            playersLeft.sort(byWaitTimeReverse);
+            windows.clear();
+            for (WaitingPlayer p : playersLeft) windows.add(p.rank, tolerance(p, now));
 
-                    for (int i = 0; i < size; i++) compatSets[i] = new HashSet<>();
+            //normally do look over only once
+            boolean doLookOver = true;
+            while (doLookOver){
+                doLookOver = false;
+                //players no match is possible for are left out, so nobody is searched if no rank window holds match
+                playersLeft.removeIf(p -> !windows.candidate(p.rank, tolerance(p, now)));
 
-                    for (int i = 0; i < size; i++){
-                        for ( int j = i; j < size; j++){
-                            if (playersCompat(playersLeft.get(i), playersLeft.get(j), now)){
-                                compatSets[i].add(j);
-                                compatSets[j].add(i);
-                            }
+                //calc compatibility sets
+                int size = playersLeft.size();
+                Set<Integer>[] compatSets = new Set[size];
+
+                for (int i = 0; i < size; i++) compatSets[i] = new HashSet<>();
+
+                for (int i = 0; i < size; i++){
+                    for ( int j = i; j < size; j++){
+                        if (playersCompat(playersLeft.get(i), playersLeft.get(j), now)){
+                            compatSets[i].add(j);
+                            compatSets[j].add(i);
                         }
                     }
+                }
 
-                    //some big logic, hard to make short explanation
-                    for (int i1 = 0; i1 < size; i1 ++){
-                        Set<Integer> s1 = compatSets[i1];
-                        if (s1.size() < MATCH_PLAYERS_COUNT) continue;
+                //some big logic, hard to make short explanation
+                for (int i1 = 0; i1 < size; i1 ++){
+                    Set<Integer> s1 = compatSets[i1];
+                    if (s1.size() < MATCH_PLAYERS_COUNT) continue;
 
 
 
-                        for (Integer i2 : s1){
-                            if (Objects.equals(i2,i1)) continue;
+                    for (Integer i2 : s1){
+                        if (Objects.equals(i2,i1)) continue;
 
-                            Set<Integer> s2 = compatSets[i2];
-                            if (s2.size() < MATCH_PLAYERS_COUNT) continue;
+                        Set<Integer> s2 = compatSets[i2];
+                        if (s2.size() < MATCH_PLAYERS_COUNT) continue;
 
-                            Set<Integer> intersection1 = new HashSet<>(s1);
-                            intersection1.retainAll(s2);
+                        Set<Integer> intersection1 = new HashSet<>(s1);
+                        intersection1.retainAll(s2);
 
-                            if (intersection1.size() < MATCH_PLAYERS_COUNT) continue;
+                        if (intersection1.size() < MATCH_PLAYERS_COUNT) continue;
 
 
 
-                            for (Integer i3 : intersection1){
-                                if (Objects.equals(i3,i1)
-                                        || Objects.equals(i3,i2)) continue;
+                        for (Integer i3 : intersection1){
+                            if (Objects.equals(i3,i1)
+                                    || Objects.equals(i3,i2)) continue;
 
-                                Set<Integer> s3 = compatSets[i3];
-                                if (s3.size() < MATCH_PLAYERS_COUNT) continue;
+                            Set<Integer> s3 = compatSets[i3];
+                            if (s3.size() < MATCH_PLAYERS_COUNT) continue;
 
-                                Set<Integer> intersection2 = new HashSet<>(intersection1);
-                                intersection2.retainAll(s3);
+                            Set<Integer> intersection2 = new HashSet<>(intersection1);
+                            intersection2.retainAll(s3);
 
-                                if (intersection2.size() < MATCH_PLAYERS_COUNT) continue;
+                            if (intersection2.size() < MATCH_PLAYERS_COUNT) continue;
 
 
 
-                                for (Integer i4 : intersection2){
-                                    if (Objects.equals(i4,i1)
-                                            || Objects.equals(i4,i2)
-                                            || Objects.equals(i4,i3)) continue;
+                            for (Integer i4 : intersection2){
+                                if (Objects.equals(i4,i1)
+                                        || Objects.equals(i4,i2)
+                                        || Objects.equals(i4,i3)) continue;
 
-                                    Set<Integer> s4 = compatSets[i4];
-                                    if (s4.size() < MATCH_PLAYERS_COUNT) continue;
+                                Set<Integer> s4 = compatSets[i4];
+                                if (s4.size() < MATCH_PLAYERS_COUNT) continue;
 
-                                    Set<Integer> intersection3 = new HashSet<>(intersection2);
-                                    intersection3.retainAll(s4);
+                                Set<Integer> intersection3 = new HashSet<>(intersection2);
+                                intersection3.retainAll(s4);
 
-                                    if (intersection3.size() < MATCH_PLAYERS_COUNT) continue;
+                                if (intersection3.size() < MATCH_PLAYERS_COUNT) continue;
 
 
 
-                                    for (Integer i5 : intersection3){
-                                        if (Objects.equals(i5,i1)
-                                                || Objects.equals(i5,i2)
-                                                || Objects.equals(i5,i3)
-                                                || Objects.equals(i5,i4)) continue;
+                                for (Integer i5 : intersection3){
+                                    if (Objects.equals(i5,i1)
+                                            || Objects.equals(i5,i2)
+                                            || Objects.equals(i5,i3)
+                                            || Objects.equals(i5,i4)) continue;
 
-                                        Set<Integer> s5 = compatSets[i5];
-                                        if (s5.size() < MATCH_PLAYERS_COUNT) continue;
+                                    Set<Integer> s5 = compatSets[i5];
+                                    if (s5.size() < MATCH_PLAYERS_COUNT) continue;
 
-                                        Set<Integer> intersection4 = new HashSet<>(intersection3);
-                                        intersection4.retainAll(s5);
+                                    Set<Integer> intersection4 = new HashSet<>(intersection3);
+                                    intersection4.retainAll(s5);
 
-                                        if (intersection4.size() < MATCH_PLAYERS_COUNT) continue;
+                                    if (intersection4.size() < MATCH_PLAYERS_COUNT) continue;
 
 
 
-                                        for (Integer i6 : intersection4){
-                                            if (Objects.equals(i6,i1)
-                                                    || Objects.equals(i6,i2)
-                                                    || Objects.equals(i6,i3)
-                                                    || Objects.equals(i6,i4)
-                                                    || Objects.equals(i6,i5)) continue;
+                                    for (Integer i6 : intersection4){
+                                        if (Objects.equals(i6,i1)
+                                                || Objects.equals(i6,i2)
+                                                || Objects.equals(i6,i3)
+                                                || Objects.equals(i6,i4)
+                                                || Objects.equals(i6,i5)) continue;
 
-                                            Set<Integer> s6 = compatSets[i6];
-                                            if (s6.size() < MATCH_PLAYERS_COUNT) continue;
+                                        Set<Integer> s6 = compatSets[i6];
+                                        if (s6.size() < MATCH_PLAYERS_COUNT) continue;
 
-                                            Set<Integer> intersection5 = new HashSet<>(intersection4);
-                                            intersection5.retainAll(s6);
+                                        Set<Integer> intersection5 = new HashSet<>(intersection4);
+                                        intersection5.retainAll(s6);
 
-                                            if (intersection5.size() < MATCH_PLAYERS_COUNT) continue;
+                                        if (intersection5.size() < MATCH_PLAYERS_COUNT) continue;
 
 
 
-                                            for (Integer i7 : intersection5){
-                                                if (Objects.equals(i7,i1)
-                                                        || Objects.equals(i7,i2)
-                                                        || Objects.equals(i7,i3)
-                                                        || Objects.equals(i7,i4)
-                                                        || Objects.equals(i7,i5)
-                                                        || Objects.equals(i7,i6)) continue;
+                                        for (Integer i7 : intersection5){
+                                            if (Objects.equals(i7,i1)
+                                                    || Objects.equals(i7,i2)
+                                                    || Objects.equals(i7,i3)
+                                                    || Objects.equals(i7,i4)
+                                                    || Objects.equals(i7,i5)
+                                                    || Objects.equals(i7,i6)) continue;
 
-                                                Set<Integer> s7 = compatSets[i7];
-                                                if (s7.size() < MATCH_PLAYERS_COUNT) continue;
+                                            Set<Integer> s7 = compatSets[i7];
+                                            if (s7.size() < MATCH_PLAYERS_COUNT) continue;
 
-                                                Set<Integer> intersection6 = new HashSet<>(intersection5);
-                                                intersection6.retainAll(s7);
+                                            Set<Integer> intersection6 = new HashSet<>(intersection5);
+                                            intersection6.retainAll(s7);
 
-                                                if (intersection6.size() < MATCH_PLAYERS_COUNT) continue;
+                                            if (intersection6.size() < MATCH_PLAYERS_COUNT) continue;
 
 
 
-                                                for (Integer i8 : intersection6){
-                                                    if (Objects.equals(i8,i1)
-                                                            || Objects.equals(i8,i2)
-                                                            || Objects.equals(i8,i3)
-                                                            || Objects.equals(i8,i4)
-                                                            || Objects.equals(i8,i5)
-                                                            || Objects.equals(i8,i6)
-                                                            || Objects.equals(i8,i7)) continue;
+                                            for (Integer i8 : intersection6){
+                                                if (Objects.equals(i8,i1)
+                                                        || Objects.equals(i8,i2)
+                                                        || Objects.equals(i8,i3)
+                                                        || Objects.equals(i8,i4)
+                                                        || Objects.equals(i8,i5)
+                                                        || Objects.equals(i8,i6)
+                                                        || Objects.equals(i8,i7)) continue;
 
-                                                    Set<Integer> s8 = compatSets[i8];
-                                                    if (s8.size() < MATCH_PLAYERS_COUNT) continue;
+                                                Set<Integer> s8 = compatSets[i8];
+                                                if (s8.size() < MATCH_PLAYERS_COUNT) continue;
 
-                                                    Set<Integer> intersection7 = new HashSet<>(intersection6);
-                                                    intersection7.retainAll(s8);
+                                                Set<Integer> intersection7 = new HashSet<>(intersection6);
+                                                intersection7.retainAll(s8);
 
-                                                    if (intersection7.size() < MATCH_PLAYERS_COUNT) continue;
+                                                if (intersection7.size() < MATCH_PLAYERS_COUNT) continue;
 
-                                                    WaitingPlayer[] matchMembers = new WaitingPlayer[MATCH_PLAYERS_COUNT];
-                                                    matchMembers[0] = playersLeft.get(i1);
-                                                    matchMembers[1] = playersLeft.get(i2);
-                                                    matchMembers[2] = playersLeft.get(i3);
-                                                    matchMembers[3] = playersLeft.get(i4);
-                                                    matchMembers[4] = playersLeft.get(i5);
-                                                    matchMembers[5] = playersLeft.get(i6);
-                                                    matchMembers[6] = playersLeft.get(i7);
-                                                    matchMembers[7] = playersLeft.get(i8);
+                                                WaitingPlayer[] matchMembers = new WaitingPlayer[MATCH_PLAYERS_COUNT];
+                                                matchMembers[0] = playersLeft.get(i1);
+                                                matchMembers[1] = playersLeft.get(i2);
+                                                matchMembers[2] = playersLeft.get(i3);
+                                                matchMembers[3] = playersLeft.get(i4);
+                                                matchMembers[4] = playersLeft.get(i5);
+                                                matchMembers[5] = playersLeft.get(i6);
+                                                matchMembers[6] = playersLeft.get(i7);
+                                                matchMembers[7] = playersLeft.get(i8);
 
-                                                    for (WaitingPlayer player : matchMembers) {
-                                                        playersLeft.remove(player);
-                                                        waitingPlayers[player.rank - 1].remove(player);
-                                                    }
+                                                for (WaitingPlayer player : matchMembers) {
+                                                    playersLeft.remove(player);
+                                                    windows.remove(player.rank, tolerance(player, now));
+                                                    waitingPlayers[player.rank - MIN_RANK].remove(player);
+                                                    queuedPlayers.remove(player.uid);
+                                                }
 
 
-                                                    //create match in separate thread to avoid match creation delay in current thread
-                                                    new Thread(() -> createMatch(matchMembers)).start();
+                                                //match creation delay is handled by dispatcher, not in current thread
+                                                dispatch(matchMembers, now);
 
 
-                                                    //do it one more time if some matched players found
-                                                    //and break all look over cycles, they has no sense now because compatibility sets changed
-                                                    doLookOver = true;
-                                                    break;
-                                                }
-                                                if (doLookOver) break;
+                                                //do it one more time if some matched players found
+                                                //and break all look over cycles, they has no sense now because compatibility sets changed
+                                                doLookOver = true;
+                                                break;
                                             }
                                             if (doLookOver) break;
                                         }
@@ -301,12 +407,39 @@ class SimplifiedMatchMaker implements MatchMaker {
                         }
                         if (doLookOver) break;
                     }
+                    if (doLookOver) break;
                 }
             }
+            metrics.recordHardCaseTime(System.nanoTime() - hardCaseStartTime);
+
+            for (int r = 0; r < waitingPlayers.length; r++) metrics.queueDepth(r, waitingPlayers[r].size());
+
+            return nextWakeTime;
+        }
+
+        //match creation delay is handled by dispatcher, not in match selector thread
+        private void dispatch(WaitingPlayer[] matchMembers, long now){
+            SelectedMatch match = matchDispatcher.acquireMatch(matchMembers.length);
+            for (int i = 0; i < matchMembers.length; i++) match.set(i, matchMembers[i].uid, matchMembers[i].rank, matchMembers[i].enterTime);
+            metrics.recordMatch(match, now);
+            matchDispatcher.dispatch(match);
+        }
+
+        //player to take to same rank match by selection policy
+        private WaitingPlayer pollSelected(Deque<WaitingPlayer> rankDeque, long now){
+            switch (selectionPolicy){
+                case OLDEST_FIRST:
+                    return rankDeque.pollFirst();
+                case DEADLINE:
+                    return now - rankDeque.peekFirst().enterTime >= deadlineWait ? rankDeque.pollFirst() : rankDeque.pollLast();
+                default:
+                    return rankDeque.pollLast();
+            }
         }
 
         void shutdown(){
             run = false;
+            selectorWakeup.signal();
         }
     }
 
@@ -0,0 +1,34 @@
+package alternativa.test.task1;
+
+/**
+ * Match maker which selector cycles can be run by caller thread instead of own selector thread,
+ * used by benchmarks and simulation.
+ */
+interface SteppableMatchMaker extends MatchMaker {
+
+    /**
+     * @param enterTime time player is considered waiting since
+     */
+    void registerPlayer(int uid, int rank, long enterTime);
+
+    /**
+     * Registers player unless registration queue is full, never waits.
+     * @return false if player was not registered
+     */
+    boolean offerPlayer(int uid, int rank);
+
+    /**
+     * Unregisters player unless registration queue is full, never waits.
+     * @return false if unregistration was not taken, it may be repeated then
+     */
+    boolean offerUnregistration(int uid);
+
+    /**
+     * Runs single selector cycle in calling thread, match making must not be started.
+     * @return time when next cycle is needed if no registrations come
+     */
+    long selectMatches();
+
+    MatchMakerMetrics metrics();
+
+}
@@ -0,0 +1,90 @@
+package alternativa.test.task1;
+
+import java.util.Arrays;
+
+/**
+ * Min heap of times waiting players get their next rank tolerance step, stored in primitive arrays.
+ * Entries are not removed when player leaves, stale ones are skipped by selector when they come up.
+ * Not thread safe.
+ */
+class ToleranceSchedule {
+
+    private long[] times = new long[64];
+    private int[] uids = new int[64];
+    private int size;
+
+
+    void add(long time, int uid){
+        if (size == times.length){
+            times = Arrays.copyOf(times, size * 2);
+            uids = Arrays.copyOf(uids, size * 2);
+        }
+        //sift up
+        int i = size++;
+        while (i > 0){
+            int parent = (i - 1) >>> 1;
+            if (times[parent] <= time) break;
+            times[i] = times[parent];
+            uids[i] = uids[parent];
+            i = parent;
+        }
+        times[i] = time;
+        uids[i] = uid;
+    }
+
+
+    boolean isEmpty(){
+        return size == 0;
+    }
+
+
+    int size(){
+        return size;
+    }
+
+
+    /**
+     * @return earliest time or {@link SelectorWakeup#NEVER} if schedule is empty
+     */
+    long peekTime(){
+        return size == 0 ? SelectorWakeup.NEVER : times[0];
+    }
+
+
+    /**
+     * @return uid of player with earliest time, schedule must not be empty
+     */
+    int peekUid(){
+        return uids[0];
+    }
+
+
+    /**
+     * Removes earliest entry.
+     */
+    void poll(){
+        if (size == 0) return;
+        size--;
+        long time = times[size];
+        int uid = uids[size];
+        //sift down last entry from root
+        int i = 0;
+        while (true){
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && times[child + 1] < times[child]) child++;
+            if (times[child] >= time) break;
+            times[i] = times[child];
+            uids[i] = uids[child];
+            i = child;
+        }
+        times[i] = time;
+        uids[i] = uid;
+    }
+
+
+    void clear(){
+        size = 0;
+    }
+
+}
@@ -0,0 +1,147 @@
+package alternativa.test.task1;
+
+import java.util.Arrays;
+
+/**
+ * Primitive open addressing hash map of waiting player uid to his rank queue slot,
+ * slot is rank index and rank queue handle packed into single long.
+ * Linear probing with backward shift deletion, so no tombstones. Not thread safe.
+ */
+class UidIndex {
+
+    static final long NO_SLOT = -1;
+
+    private static final int HANDLE_BITS = 40;
+    private static final long HANDLE_MASK = (1L << HANDLE_BITS) - 1;
+
+    private int[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+
+
+    UidIndex() {
+        this(64);
+    }
+
+
+    /**
+     * @param initialCapacity rounded up to power of two
+     */
+    UidIndex(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(4, initialCapacity) * 2 - 1);
+        keys = new int[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, NO_SLOT);
+        mask = capacity - 1;
+    }
+
+
+    static long slot(int rankIndex, long handle){
+        return (long) rankIndex << HANDLE_BITS | handle;
+    }
+
+
+    static int rankIndex(long slot){
+        return (int) (slot >>> HANDLE_BITS);
+    }
+
+
+    static long handle(long slot){
+        return slot & HANDLE_MASK;
+    }
+
+
+    /**
+     * @return slot of player or {@link #NO_SLOT} if player is not waiting
+     */
+    long get(int uid){
+        for (int i = hash(uid) & mask; values[i] != NO_SLOT; i = (i + 1) & mask){
+            if (keys[i] == uid) return values[i];
+        }
+        return NO_SLOT;
+    }
+
+
+    boolean contains(int uid){
+        return get(uid) != NO_SLOT;
+    }
+
+
+    /**
+     * @return previous slot of player or {@link #NO_SLOT}
+     */
+    long put(int uid, long slot){
+        int i = hash(uid) & mask;
+        for (; values[i] != NO_SLOT; i = (i + 1) & mask){
+            if (keys[i] == uid){
+                long previous = values[i];
+                values[i] = slot;
+                return previous;
+            }
+        }
+        keys[i] = uid;
+        values[i] = slot;
+        if (++size * 2 > keys.length) grow();
+        return NO_SLOT;
+    }
+
+
+    /**
+     * @return removed slot of player or {@link #NO_SLOT}
+     */
+    long remove(int uid){
+        int i = hash(uid) & mask;
+        for (; values[i] != NO_SLOT; i = (i + 1) & mask){
+            if (keys[i] == uid) break;
+        }
+        long removed = values[i];
+        if (removed == NO_SLOT) return NO_SLOT;
+
+        //shift following entries of the same probe chain back to keep chains unbroken
+        int gap = i;
+        for (int j = (gap + 1) & mask; values[j] != NO_SLOT; j = (j + 1) & mask){
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)){
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = NO_SLOT;
+        size--;
+        return removed;
+    }
+
+
+    int size(){
+        return size;
+    }
+
+
+    void clear(){
+        Arrays.fill(values, NO_SLOT);
+        size = 0;
+    }
+
+
+    private void grow(){
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        Arrays.fill(values, NO_SLOT);
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++){
+            if (oldValues[i] != NO_SLOT) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+
+    private static int hash(int uid){
+        int h = uid * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
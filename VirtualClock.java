@@ -0,0 +1,34 @@
+package alternativa.test.task1;
+
+/**
+ * Clock moved forward explicitly by simulation driver.
+ * Selector threads parking till some virtual time are not woken up by clock moves,
+ * so match makers using it should be stepped with {@link SteppableMatchMaker#selectMatches()}.
+ */
+class VirtualClock implements MatchClock {
+
+    private volatile long time;
+
+
+    /**
+     * @param startTime initial time in millis
+     */
+    VirtualClock(long startTime) {
+        this.time = startTime;
+    }
+
+
+    public long currentTimeMillis(){
+        return time;
+    }
+
+
+    /**
+     * @param time new time in millis, not less than current one
+     */
+    void advanceTo(long time){
+        if (time < this.time) throw new IllegalArgumentException();
+        this.time = time;
+    }
+
+}